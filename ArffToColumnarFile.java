@@ -0,0 +1,107 @@
+/**
+ * Converts an ARFF file into the binary columnar format read by ColumnarFileStream.
+ *
+ * Usage: java moa.streams.ArffToColumnarFile <input arff file> <output columnar file>
+ *
+ * All attribute values are stored as doubles, as in MOA instances: nominal values are stored as the index of the value,
+ * and missing values as NaN. The ARFF header is stored as it is, so the attribute information is the same as when reading the ARFF file.
+ * The ARFF file is read twice, first to count the instances and then to write their values into the mapped columns of the output file,
+ * so the instances are never all held in memory.
+ *
+ */
+
+package moa.streams;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+public class ArffToColumnarFile {
+
+	public static void main(String []args) {
+		if (args.length != 2) {
+			System.err.println("Usage: java moa.streams.ArffToColumnarFile <input arff file> <output columnar file>");
+			return;
+		}
+
+		try {
+			convert(args[0], args[1]);
+		} catch (IOException e) {
+			System.err.println("Error while converting " + args[0] + ".");
+			e.printStackTrace();
+		}
+	}
+
+	public static void convert(String arffFileName, String columnarFileName) throws IOException {
+
+		String header = readHeader(arffFileName);
+		byte []headerBytes = header.getBytes("UTF-8");
+
+		// First pass: count the instances, so that the position of every column in the file is known
+		ArffFileStream stream = new ArffFileStream(arffFileName, -1);
+		int numAttributes = stream.getHeader().numAttributes();
+		long numInstances = 0;
+		while (stream.hasMoreInstances()) {
+			stream.nextInstance();
+			numInstances++;
+		}
+		if (numInstances > Integer.MAX_VALUE / 8)
+			throw new IOException(arffFileName + " has too many instances to be stored in a columnar file.");
+
+		RandomAccessFile file = new RandomAccessFile(columnarFileName, "rw");
+		try {
+			file.setLength(0);
+			file.writeInt(ColumnarFileStream.MAGIC);
+			file.writeInt(ColumnarFileStream.VERSION);
+			file.writeInt(headerBytes.length);
+			file.write(headerBytes);
+			file.writeLong(numInstances);
+			file.writeInt(numAttributes);
+			long dataOffset = file.getFilePointer();
+			long columnBytes = numInstances * 8;
+			file.setLength(dataOffset + (numAttributes + 1) * columnBytes);
+
+			// Second pass: write the values of each instance into the mapped columns, so that no instance is kept in memory
+			FileChannel channel = file.getChannel();
+			DoubleBuffer []columns = new DoubleBuffer[numAttributes];
+			for (int a=0; a<numAttributes; ++a)
+				columns[a] = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + a * columnBytes, columnBytes).asDoubleBuffer();
+			DoubleBuffer weightColumn = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + numAttributes * columnBytes, columnBytes).asDoubleBuffer();
+
+			stream.restart();
+			for (int i=0; i<numInstances; ++i) {
+				if (!stream.hasMoreInstances())
+					throw new IOException(arffFileName + " changed while it was being converted.");
+				Instance inst = stream.nextInstance().getData();
+				for (int a=0; a<numAttributes; ++a)
+					columns[a].put(i, inst.value(a));
+				weightColumn.put(i, inst.weight());
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	// Text of the ARFF file up to and including the @data line
+	protected static String readHeader(String arffFileName) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(arffFileName));
+		StringBuilder header = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				header.append(line).append('\n');
+				if (line.trim().toLowerCase().startsWith("@data"))
+					return header.toString();
+			}
+		} finally {
+			reader.close();
+		}
+		throw new IOException("No @data section found in " + arffFileName + ".");
+	}
+
+}
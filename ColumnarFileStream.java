@@ -0,0 +1,251 @@
+/**
+ * A stream read from a binary columnar file, which can be created from an ARFF file with ArffToColumnarFile.
+ *
+ * The file is read through a memory-mapped FileChannel, so instances are created without any text parsing.
+ * It is used by OATES for CC data streams whose file names end with FILE_EXTENSION.
+ * Positions used for seeking are record numbers.
+ *
+ * File format (big endian):
+ *  int     MAGIC
+ *  int     VERSION
+ *  int     length of the header in bytes
+ *  byte[]  header: the ARFF header of the original file, up to and including the @data line, in UTF-8
+ *  long    number of instances n
+ *  int     number of attributes m
+ *  double  m columns of n attribute values each, one column per attribute (missing values are NaN)
+ *  double  one column of n instance weights
+ *
+ */
+
+package moa.streams;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.tasks.TaskMonitor;
+
+public class ColumnarFileStream extends AbstractOptionHandler implements SeekableInstanceStream {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int MAGIC = 0x4F415443;
+	public static final int VERSION = 1;
+	public static final String FILE_EXTENSION = ".columnar";
+
+	@Override
+	public String getPurposeString() {
+		return "A stream read from a binary columnar file.";
+	}
+
+	public FileOption columnarFileOption = new FileOption("columnarFile", 'f',
+			"Columnar file to load.", null, FILE_EXTENSION.substring(1), false);
+
+	public IntOption classIndexOption = new IntOption("classIndex", 'c',
+			"Class index of data. 0 for none or -1 for last attribute in file.", -1, -1, Integer.MAX_VALUE);
+
+	protected Instances instances;
+
+	protected InstancesHeader instancesHeader;
+
+	protected long numInstances;
+
+	protected int numAttributes;
+
+	// Offset of the first attribute column in the file
+	protected long dataOffset;
+
+	// Index of the next instance to be read
+	protected long nextInstanceIndex;
+
+	// Mapped columns. Not serialised: they are mapped again when needed.
+	protected transient DoubleBuffer[] columns;
+	protected transient DoubleBuffer weightColumn;
+
+	public ColumnarFileStream() {
+	}
+
+	public ColumnarFileStream(String columnarFileName, int classIndex) {
+		this.columnarFileOption.setValue(columnarFileName);
+		this.classIndexOption.setValue(classIndex);
+		restart();
+	}
+
+	@Override
+	public void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository) {
+		restart();
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return new InstancesHeader(this.instances);
+	}
+
+	@Override
+	public long estimatedRemainingInstances() {
+		return numInstances - nextInstanceIndex;
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		return nextInstanceIndex < numInstances;
+	}
+
+	@Override
+	public InstanceExample nextInstance() {
+		if (!hasMoreInstances())
+			return null;
+
+		mapColumns();
+
+		int row = (int) nextInstanceIndex;
+		double []values = new double[numAttributes];
+		for (int a=0; a<numAttributes; ++a)
+			values[a] = columns[a].get(row);
+
+		nextInstanceIndex++;
+		return new InstanceExample(new ColumnarInstance(weightColumn.get(row), values, instancesHeader));
+	}
+
+	@Override
+	public File getFile() {
+		return this.columnarFileOption.getFile();
+	}
+
+	@Override
+	public long getRecordNumber() {
+		return nextInstanceIndex;
+	}
+
+	@Override
+	public void seek(long recordNumber, long position) {
+		nextInstanceIndex = recordNumber;
+	}
+
+	@Override
+	public TimestampIndex buildTimestampIndex(int timestampIndex) {
+		mapColumns();
+
+		double []timestamps = new double[(int) numInstances];
+		long []positions = new long[(int) numInstances];
+		for (int i=0; i<timestamps.length; ++i) {
+			timestamps[i] = columns[timestampIndex].get(i);
+			positions[i] = i;
+		}
+		return new TimestampIndex(timestampIndex, timestamps, positions);
+	}
+
+	@Override
+	public boolean isRestartable() {
+		return true;
+	}
+
+	@Override
+	public void restart() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(this.columnarFileOption.getFile()));
+
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a columnar file: " + this.columnarFileOption.getFile());
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported columnar file version " + version + ".");
+
+			byte []headerBytes = new byte[in.readInt()];
+			in.readFully(headerBytes);
+			numInstances = in.readLong();
+			numAttributes = in.readInt();
+			dataOffset = 4 + 4 + 4 + headerBytes.length + 8 + 4;
+
+			if (numInstances > Integer.MAX_VALUE / 8)
+				throw new IOException("Columnar file has too many instances to be mapped.");
+
+			int classIndex = this.classIndexOption.getValue();
+			this.instances = new Instances(new StringReader(new String(headerBytes, "UTF-8")), 1, classIndex);
+			if (classIndex < 0) {
+				this.instances.setClassIndex(this.instances.numAttributes() - 1);
+			} else if (classIndex > 0) {
+				this.instances.setClassIndex(classIndex - 1);
+			}
+			if (this.instances.numAttributes() != numAttributes)
+				throw new IOException("Columnar file header has " + this.instances.numAttributes() + " attributes, but its data has " + numAttributes + ".");
+			this.instancesHeader = new InstancesHeader(this.instances);
+
+			this.columns = null;
+			this.weightColumn = null;
+			this.nextInstanceIndex = 0;
+		} catch (IOException ioe) {
+			throw new RuntimeException("ColumnarFileStream restart failed.", ioe);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ioe) {
+					// nothing else to do
+				}
+			}
+		}
+	}
+
+	// Map the attribute and weight columns, if not mapped yet
+	protected void mapColumns() {
+		if (columns != null)
+			return;
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(this.columnarFileOption.getFile(), "r");
+			FileChannel channel = file.getChannel();
+			long columnBytes = numInstances * 8;
+
+			DoubleBuffer []mapped = new DoubleBuffer[numAttributes];
+			for (int a=0; a<numAttributes; ++a)
+				mapped[a] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + a * columnBytes, columnBytes).asDoubleBuffer();
+			weightColumn = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + numAttributes * columnBytes, columnBytes).asDoubleBuffer();
+			columns = mapped;
+		} catch (IOException ioe) {
+			throw new RuntimeException("ColumnarFileStream failed to map file.", ioe);
+		} finally {
+			// The mapping remains valid after the channel is closed
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ioe) {
+					// nothing else to do
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getDescription(StringBuilder sb, int indent) {
+	}
+
+	// Instance read from the file. All instances share the header of the stream instead of creating a new one,
+	// as setDataset would do.
+	protected static class ColumnarInstance extends DenseInstance {
+
+		private static final long serialVersionUID = 1L;
+
+		public ColumnarInstance(double weight, double []values, InstancesHeader header) {
+			super(weight, values);
+			this.instanceHeader = header;
+		}
+	}
+
+}
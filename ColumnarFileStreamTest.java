@@ -0,0 +1,80 @@
+package moa.streams;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import junit.framework.TestCase;
+
+public class ColumnarFileStreamTest extends TestCase {
+
+	public ColumnarFileStreamTest() {
+		super();
+	}
+
+	public ColumnarFileStreamTest(String name) {
+		super(name);
+	}
+	
+	private File arffFile, columnarFile;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		arffFile = File.createTempFile("columnar_stream_test", ".arff");
+		FileWriter writer = new FileWriter(arffFile);
+		writer.write("@relation test\n@attribute language {java,c}\n@attribute size numeric\n@attribute effort numeric\n@attribute timestamp numeric\n@data\n");
+		writer.write("java,10,100,1\n");
+		writer.write("c,?,200,2\n");
+		writer.write("c,30,300,5\n");
+		writer.close();
+		
+		columnarFile = File.createTempFile("columnar_stream_test", ColumnarFileStream.FILE_EXTENSION);
+		ArffToColumnarFile.convert(arffFile.getPath(), columnarFile.getPath());
+	}
+
+	protected void tearDown() throws Exception {
+		arffFile.delete();
+		columnarFile.delete();
+		super.tearDown();
+	}
+	
+	public void testSameInstancesAsArff() {
+		ArffFileStream arffStream = new ArffFileStream(arffFile.getPath(), 3);
+		ColumnarFileStream columnarStream = new ColumnarFileStream(columnarFile.getPath(), 3);
+		
+		assertEquals(arffStream.getHeader().numAttributes(), columnarStream.getHeader().numAttributes());
+		assertEquals(arffStream.getHeader().classIndex(), columnarStream.getHeader().classIndex());
+		assertEquals(3, columnarStream.estimatedRemainingInstances());
+		
+		while (arffStream.hasMoreInstances()) {
+			assertTrue(columnarStream.hasMoreInstances());
+			Instance arffInst = arffStream.nextInstance().getData();
+			Instance columnarInst = columnarStream.nextInstance().getData();
+			
+			assertEquals(arffInst.numAttributes(), columnarInst.numAttributes());
+			for (int a=0; a<arffInst.numAttributes(); ++a) {
+				assertEquals(arffInst.isMissing(a), columnarInst.isMissing(a));
+				if (!arffInst.isMissing(a))
+					assertEquals(arffInst.value(a), columnarInst.value(a));
+			}
+			assertEquals(arffInst.weight(), columnarInst.weight());
+			assertEquals(arffInst.classValue(), columnarInst.classValue());
+			assertEquals(arffInst.attribute(0).value((int) arffInst.value(0)), columnarInst.attribute(0).value((int) columnarInst.value(0)));
+		}
+		assertFalse(columnarStream.hasMoreInstances());
+		
+		columnarStream.restart();
+		assertTrue(columnarStream.hasMoreInstances());
+		assertEquals(10.0, columnarStream.nextInstance().getData().value(1));
+	}
+	
+	public void testClassIndexChangedThroughHeader() {
+		ColumnarFileStream columnarStream = new ColumnarFileStream(columnarFile.getPath(), -1);
+		assertEquals(3, columnarStream.getHeader().classIndex());
+		
+		columnarStream.getHeader().setClassIndex(2);
+		assertEquals(100.0, columnarStream.nextInstance().getData().classValue());
+	}
+
+}
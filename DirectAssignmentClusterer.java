@@ -0,0 +1,17 @@
+/**
+ * Interface for clusterers that can tell directly to which of their clusters an instance belongs, without computing the inclusion
+ * probability of every cluster. Used by OATES to assign CC instances to CC learners when the clusterer supports it.
+ *
+ */
+
+package moa.clusterers.threshold;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+public interface DirectAssignmentClusterer {
+
+	// Index, in getClusteringResult(), of the cluster with the largest inclusion probability for inst. 
+	// If several clusters have the largest probability, the first of them. -1 if there are no clusters.
+	public int getClusterIndex(Instance inst);
+	
+}
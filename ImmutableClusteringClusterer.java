@@ -0,0 +1,12 @@
+/**
+ * Interface for clusterers that never change a Clustering after returning it from getClusteringResult: whenever their clusters
+ * change, getClusteringResult returns a new Clustering. Used by OATES to recheck the CC instances waiting for clusters only when
+ * the Clustering it gets is a different object. The instances waiting for other clusterers are rechecked every time.
+ *
+ */
+
+package moa.clusterers.threshold;
+
+public interface ImmutableClusteringClusterer {
+	
+}
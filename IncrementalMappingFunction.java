@@ -0,0 +1,13 @@
+/**
+ * Interface for mapping functions whose training on further WC instances gives the same result as resetting them and training them
+ * again on all WC instances seen so far, provided that their CC learner has not changed in the meantime. OATES can then refresh them
+ * by training them only on the WC instances they have not seen yet (incrementalMappingFunctions option).
+ * Mapping functions that do not implement this interface are always reset and retrained on the whole WC queue.
+ *
+ */
+
+package moa.classifiers.meta;
+
+public interface IncrementalMappingFunction extends MappingFunction {
+	
+}
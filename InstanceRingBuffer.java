@@ -0,0 +1,376 @@
+/**
+ * Queue of instances used by OATES, implemented as a circular buffer.
+ *
+ * Adding an instance to the end of the queue and removing the instance at the front of the queue take constant time.
+ * The attribute values and weights of the stored instances are kept in contiguous primitive arrays, rather than as Instance objects.
+ * Each call to get creates a new Instance with a copy of the stored values, which the buffer does not keep, so the values are stored
+ * only once. Loops over the queue should get each instance once, or read its values through value, classValue and weight.
+ * Returned instances can be kept after the instance leaves the queue, but must not be modified.
+ *
+ * Instances must belong to a dataset when they are added.
+ *
+ * All instances stored at the same time must have the same number of attributes.
+ *
+ * The buffer also counts how many instances have ever been added to and removed from it, so that the instance at index i
+ * can be identified by its absolute position getNumRemoved() + i.
+ *
+ * Caches of forms derived from instances (e.g., WEKAInstanceCache) can keep a form with a stored instance through setCachedForm,
+ * and find it through getCachedForm from any Instance returned by get for it, until the instance leaves the queue. The forms are
+ * thus looked up by position rather than by the identity of the returned Instance, and the cache holds exactly the queued instances.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+public class InstanceRingBuffer implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// The queue never grows beyond this number of instances
+	protected int maxCapacity;
+
+	protected int capacity;
+	protected int numAttributes;
+
+	// values[slot * numAttributes + a] is the value of attribute a of the instance stored in slot
+	protected double[] values;
+	protected double[] weights;
+	protected InstancesHeader[] headers;
+
+	// cachedForms[slot] is the form kept by setCachedForm for the instance stored in slot, or null if there is none.
+	// Null as a whole until a form is kept, and after the buffer is deserialised.
+	protected transient Object[] cachedForms;
+
+	// Slot of the first instance, and number of instances in the queue
+	protected int head;
+	protected int size;
+
+	protected long numAdded;
+	protected long numRemoved;
+
+	// Increased whenever the queue is cleared, as positions may then be given to other instances by read
+	protected int generation;
+
+	// Header of the last dataset added, to avoid creating a new header for every instance of the same dataset
+	protected transient Instances lastDataset;
+	protected transient InstancesHeader lastHeader;
+
+	public InstanceRingBuffer() {
+		this(Integer.MAX_VALUE);
+	}
+
+	public InstanceRingBuffer(int maxCapacity) {
+		this.maxCapacity = maxCapacity;
+		this.capacity = 0;
+		this.numAttributes = -1;
+		clear();
+		this.numRemoved = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getNumAdded() {
+		return numAdded;
+	}
+
+	public long getNumRemoved() {
+		return numRemoved;
+	}
+
+	// Add all attributes of inst to the end of the queue
+	public void add(Instance inst) {
+		add(inst, inst.numAttributes(), inst.dataset());
+	}
+
+	// Add the first numAtts attributes of inst to the end of the queue.
+	// The stored instance will belong to dataset, which should describe only these attributes.
+	public void add(Instance inst, int numAtts, Instances dataset) {
+
+		if (dataset == null)
+			throw new IllegalArgumentException("Instances added to the queue must belong to a dataset.");
+
+		if (size == 0)
+			numAttributes = numAtts;
+		else if (numAtts != numAttributes)
+			throw new IllegalArgumentException("Instance has " + numAtts + " attributes, but the instances in the queue have " + numAttributes + ".");
+
+		int slot = addSlot();
+		int offset = slot * numAttributes;
+		for (int a=0; a<numAttributes; ++a)
+			values[offset + a] = inst.value(a);
+		weights[slot] = inst.weight();
+		headers[slot] = getHeader(dataset);
+	}
+
+	// Add an empty slot to the end of the queue and return it
+	protected int addSlot() {
+		if (size == capacity)
+			grow();
+
+		int slot = (head + size) % capacity;
+		int offset = slot * numAttributes;
+		if (values.length < offset + numAttributes)
+			values = resize(values, capacity * numAttributes);
+
+		if (cachedForms != null)
+			cachedForms[slot] = null;
+
+		size++;
+		numAdded++;
+		return slot;
+	}
+
+	// Remove the instance at the front of the queue
+	public void removeFirst() {
+		if (size == 0)
+			throw new IllegalStateException("Trying to remove an instance from an empty queue.");
+
+		headers[head] = null;
+		if (cachedForms != null)
+			cachedForms[head] = null;
+		head = (head + 1) % capacity;
+		size--;
+		numRemoved++;
+	}
+
+	// Move the instance at the front of the queue to the end of the queue, without creating an instance.
+	// The instance is counted as removed and added again.
+	public void moveFirstToLast() {
+		if (size == 0)
+			throw new IllegalStateException("Trying to move an instance in an empty queue.");
+
+		int tail = (head + size) % capacity;
+		if (tail != head) {
+			System.arraycopy(values, head * numAttributes, values, tail * numAttributes, numAttributes);
+			weights[tail] = weights[head];
+			headers[tail] = headers[head];
+			headers[head] = null;
+			// The moved instance gets a new position, but its forms are still valid
+			if (cachedForms != null) {
+				cachedForms[tail] = cachedForms[head];
+				cachedForms[head] = null;
+			}
+		}
+		head = (head + 1) % capacity;
+		numRemoved++;
+		numAdded++;
+	}
+
+	public void clear() {
+		numRemoved += size;
+		generation++;
+		head = 0;
+		size = 0;
+		if (headers != null)
+			for (int i=0; i<capacity; ++i)
+				headers[i] = null;
+		if (cachedForms != null)
+			for (int i=0; i<capacity; ++i)
+				cachedForms[i] = null;
+		if (values == null) {
+			values = new double[0];
+			weights = new double[0];
+			headers = new InstancesHeader[0];
+		}
+	}
+
+	// Write the counters, weights and values of the queue. Headers are not written.
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(numAdded);
+		out.writeLong(numRemoved);
+		out.writeInt(size);
+		out.writeInt(numAttributes);
+		for (int i=0; i<size; ++i) {
+			int slot = getSlot(i);
+			out.writeDouble(weights[slot]);
+			for (int a=0; a<numAttributes; ++a)
+				out.writeDouble(values[slot * numAttributes + a]);
+		}
+	}
+
+	// Replace the contents of the queue by the ones written by write. All instances will belong to header.
+	public void read(DataInput in, InstancesHeader header) throws IOException {
+		long storedNumAdded = in.readLong();
+		long storedNumRemoved = in.readLong();
+		int storedSize = in.readInt();
+		int storedNumAttributes = in.readInt();
+
+		clear();
+		numAttributes = storedNumAttributes;
+		for (int i=0; i<storedSize; ++i) {
+			int slot = addSlot();
+			weights[slot] = in.readDouble();
+			for (int a=0; a<numAttributes; ++a)
+				values[slot * numAttributes + a] = in.readDouble();
+			headers[slot] = header;
+		}
+
+		numAdded = storedNumAdded;
+		numRemoved = storedNumRemoved;
+	}
+
+	// Create an instance with a copy of the values stored at index i of the queue
+	public Instance get(int i) {
+		int slot = getSlot(i);
+		double []instValues = new double[numAttributes];
+		System.arraycopy(values, slot * numAttributes, instValues, 0, numAttributes);
+		return new BufferedInstance(weights[slot], instValues, headers[slot], this, numRemoved + i);
+	}
+
+	// Form kept by setCachedForm for the instance inst was returned by get for, if inst was returned by get and its instance is
+	// still in the queue; null otherwise.
+	// Can be called by several threads at the same time, as long as the queue is not changed meanwhile.
+	public static Object getCachedForm(Instance inst) {
+		BufferedInstance bufferedInst = getQueued(inst);
+		if (bufferedInst == null || bufferedInst.buffer.cachedForms == null)
+			return null;
+		return bufferedInst.buffer.cachedForms[bufferedInst.buffer.getSlot(bufferedInst)];
+	}
+
+	// Keep form for the instance inst was returned by get for, until it leaves the queue. Return false, without keeping form,
+	// if inst was not returned by get or its instance is no longer in the queue.
+	// Can be called by several threads at the same time, as long as the queue is not changed meanwhile. A form kept by another
+	// thread at the same time may then be lost, in which case it is simply created again when needed.
+	public static boolean setCachedForm(Instance inst, Object form) {
+		BufferedInstance bufferedInst = getQueued(inst);
+		if (bufferedInst == null)
+			return false;
+		InstanceRingBuffer buffer = bufferedInst.buffer;
+		Object []forms = buffer.cachedForms;
+		if (forms == null) {
+			forms = new Object[buffer.capacity];
+			buffer.cachedForms = forms;
+		}
+		forms[buffer.getSlot(bufferedInst)] = form;
+		return true;
+	}
+
+	// inst as a BufferedInstance, if it was returned by get and its instance is still in the queue; null otherwise
+	protected static BufferedInstance getQueued(Instance inst) {
+		if (!(inst instanceof BufferedInstance))
+			return null;
+		BufferedInstance bufferedInst = (BufferedInstance) inst;
+		InstanceRingBuffer buffer = bufferedInst.buffer;
+		if (buffer == null || bufferedInst.generation != buffer.generation 
+				|| bufferedInst.position < buffer.numRemoved || bufferedInst.position >= buffer.numRemoved + buffer.size)
+			return null;
+		return bufferedInst;
+	}
+
+	// Slot of the instance returned by get, which must still be in the queue
+	protected int getSlot(BufferedInstance bufferedInst) {
+		return getSlot((int) (bufferedInst.position - numRemoved));
+	}
+
+	// Value of attribute a of the instance at index i of the queue, without creating an instance
+	public double value(int i, int a) {
+		return values[getSlot(i) * numAttributes + a];
+	}
+
+	// Class value of the instance at index i of the queue, without creating an instance
+	public double classValue(int i) {
+		int slot = getSlot(i);
+		int classIndex = headers[slot].classIndex();
+		if (classIndex == Integer.MAX_VALUE)
+			classIndex = 0;
+		return values[slot * numAttributes + classIndex];
+	}
+
+	public double weight(int i) {
+		return weights[getSlot(i)];
+	}
+
+	protected int getSlot(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return (head + i) % capacity;
+	}
+
+	protected InstancesHeader getHeader(Instances dataset) {
+		if (dataset instanceof InstancesHeader)
+			return (InstancesHeader) dataset;
+		if (dataset != lastDataset) {
+			lastDataset = dataset;
+			lastHeader = new InstancesHeader(dataset);
+		}
+		return lastHeader;
+	}
+
+	// Double the capacity, moving the instances to the beginning of the new arrays
+	protected void grow() {
+		if (capacity == maxCapacity)
+			throw new IllegalStateException("Trying to add an instance to a full queue.");
+
+		int newCapacity = (int) Math.min(maxCapacity, Math.max(INITIAL_CAPACITY, 2L * capacity));
+		double []newValues = new double[newCapacity * Math.max(numAttributes, 0)];
+		double []newWeights = new double[newCapacity];
+		InstancesHeader []newHeaders = new InstancesHeader[newCapacity];
+		Object []newCachedForms = cachedForms != null ? new Object[newCapacity] : null;
+
+		for (int i=0; i<size; ++i) {
+			int slot = (head + i) % capacity;
+			System.arraycopy(values, slot * numAttributes, newValues, i * numAttributes, numAttributes);
+			newWeights[i] = weights[slot];
+			newHeaders[i] = headers[slot];
+			if (cachedForms != null)
+				newCachedForms[i] = cachedForms[slot];
+		}
+
+		values = newValues;
+		weights = newWeights;
+		headers = newHeaders;
+		cachedForms = newCachedForms;
+		head = 0;
+		capacity = newCapacity;
+	}
+
+	protected static double[] resize(double []array, int length) {
+		double []newArray = new double[length];
+		System.arraycopy(array, 0, newArray, 0, Math.min(array.length, length));
+		return newArray;
+	}
+
+	// Instance created from the buffer. It shares the header stored in the buffer instead of creating a new one,
+	// as setDataset would do. It knows the buffer and the position it was created for, so that its cached forms can be found.
+	// The buffer is not serialised with it, as the forms of a deserialised buffer are not kept.
+	protected static class BufferedInstance extends DenseInstance {
+
+		private static final long serialVersionUID = 1L;
+
+		protected transient InstanceRingBuffer buffer;
+		protected long position;
+		protected int generation;
+
+		public BufferedInstance(double weight, double []values, InstancesHeader header) {
+			super(weight, values);
+			this.instanceHeader = header;
+		}
+
+		public BufferedInstance(double weight, double []values, InstancesHeader header, InstanceRingBuffer buffer, long position) {
+			super(weight, values);
+			this.instanceHeader = header;
+			this.buffer = buffer;
+			this.position = position;
+			this.generation = buffer.generation;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package moa.classifiers.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import junit.framework.TestCase;
+
+public class InstanceRingBufferTest extends TestCase {
+
+	public InstanceRingBufferTest() {
+		super();
+	}
+
+	public InstanceRingBufferTest(String name) {
+		super(name);
+	}
+	
+	private Instances dataset;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		List<Attribute> atts = new ArrayList<Attribute>();
+		atts.add(new Attribute("size"));
+		atts.add(new Attribute("effort"));
+		atts.add(new Attribute("timestamp"));
+		dataset = new Instances("test", atts, 0);
+		dataset.setClassIndex(1);
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	
+	private Instance createInstance(double size, double effort, double timestamp) {
+		double []attvals = {size, effort, timestamp};
+		Instance inst = new DenseInstance(1, attvals);
+		inst.setDataset(dataset);
+		return inst;
+	}
+	
+	public void testAddAndRemove() {
+		InstanceRingBuffer buffer = new InstanceRingBuffer();
+		assertTrue(buffer.isEmpty());
+		
+		// Add enough instances for the buffer to grow a few times, removing some of them on the way
+		for (int i=0; i<100; ++i) {
+			buffer.add(createInstance(i, 10*i, 100*i));
+			if (i % 3 == 0)
+				buffer.removeFirst();
+		}
+		
+		assertEquals(100, buffer.getNumAdded());
+		assertEquals(34, buffer.getNumRemoved());
+		assertEquals(66, buffer.size());
+		
+		for (int j=0; j<buffer.size(); ++j) {
+			int i = 34 + j;
+			Instance inst = buffer.get(j);
+			assertEquals(3, inst.numAttributes());
+			assertEquals((double) i, inst.value(0));
+			assertEquals(10.0*i, inst.classValue());
+			assertEquals(10.0*i, buffer.classValue(j));
+			assertEquals(100.0*i, buffer.value(j, 2));
+			assertEquals(1.0, buffer.weight(j));
+		}
+	}
+	
+	public void testMaxCapacity() {
+		InstanceRingBuffer buffer = new InstanceRingBuffer(3);
+		
+		for (int i=0; i<10; ++i) {
+			if (buffer.size() == 3)
+				buffer.removeFirst();
+			buffer.add(createInstance(i, 10*i, 100*i));
+		}
+		
+		assertEquals(3, buffer.size());
+		assertEquals(7.0, buffer.get(0).value(0));
+		assertEquals(9.0, buffer.get(2).value(0));
+		
+		try {
+			buffer.add(createInstance(10, 100, 1000));
+			fail("Adding an instance to a full queue should fail.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	public void testAddWithoutLastAttribute() {
+		List<Attribute> atts = new ArrayList<Attribute>();
+		atts.add(dataset.attribute(0));
+		atts.add(dataset.attribute(1));
+		Instances datasetNoTimeStamp = new Instances("test", atts, 0);
+		datasetNoTimeStamp.setClassIndex(1);
+		
+		InstanceRingBuffer buffer = new InstanceRingBuffer();
+		Instance original = createInstance(1, 2, 3);
+		buffer.add(original, 2, datasetNoTimeStamp);
+		
+		Instance inst = buffer.get(0);
+		assertEquals(2, inst.numAttributes());
+		assertEquals(2, inst.dataset().numAttributes());
+		assertEquals(2.0, inst.classValue());
+		
+		// The instance returned is a copy, so changing it does not change the buffer or the original instance
+		inst.setValue(0, 50);
+		assertEquals(1.0, buffer.value(0, 0));
+		assertEquals(1.0, original.value(0));
+		
+		// Instances with a different number of attributes cannot be stored together
+		try {
+			buffer.add(original);
+			fail("Adding an instance with a different number of attributes should fail.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		// Once the buffer is empty, it can store instances with any number of attributes
+		buffer.clear();
+		assertEquals(1, buffer.getNumRemoved());
+		buffer.add(original);
+		assertEquals(3, buffer.get(0).numAttributes());
+	}
+	
+	public void testMoveFirstToLast() {
+		InstanceRingBuffer buffer = new InstanceRingBuffer();
+		for (int i=0; i<5; ++i)
+			buffer.add(createInstance(i, 10*i, 100*i));
+		
+		buffer.moveFirstToLast();
+		buffer.moveFirstToLast();
+		
+		assertEquals(5, buffer.size());
+		double []expected = {2, 3, 4, 0, 1};
+		for (int j=0; j<buffer.size(); ++j) {
+			assertEquals(expected[j], buffer.value(j, 0));
+			assertEquals(10*expected[j], buffer.classValue(j));
+		}
+	}
+
+	public void testGetReturnsCopies() {
+		InstanceRingBuffer buffer = new InstanceRingBuffer();
+		for (int i=0; i<3; ++i)
+			buffer.add(createInstance(i, 10*i, 100*i));
+		
+		// Each call gives a new instance, which the buffer does not keep
+		Instance first = buffer.get(0);
+		assertNotSame(first, buffer.get(0));
+		assertEquals(buffer.classValue(0), buffer.get(0).classValue());
+		
+		// A removed instance is still usable
+		buffer.removeFirst();
+		assertEquals(0.0, first.classValue());
+		for (int i=3; i<20; ++i)
+			buffer.add(createInstance(i, 10*i, 100*i));
+		assertEquals(0.0, first.value(0));
+		for (int j=0; j<buffer.size(); ++j)
+			assertEquals(buffer.classValue(j), buffer.get(j).classValue());
+	}
+	
+	public void testAddWithoutDataset() {
+		InstanceRingBuffer buffer = new InstanceRingBuffer();
+		try {
+			buffer.add(new DenseInstance(1, new double[] {1, 2, 3}));
+			fail("Instances without dataset should be rejected.");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals(0, buffer.size());
+	}
+
+}
@@ -5,6 +5,10 @@
  * This class implements OATES. Both WC and CC data arrive online.
  * It requires each WC and CC data stream to have an attribute to represent the timestamp when the training example was received.
  * 
+ * Several CC data streams can be used by listing the additional ones in the additionalCCDataStreams option. They are merged by timestamp
+ * while being read, so there is no need to merge them into a single file beforehand.
+ * CC data stream files can also be given in the binary columnar format created by ArffToColumnarFile, which is faster to read.
+ * 
  * Note that it is possible to run this without using CC data by entering an arff CC file containing only the headers, without actual data.
  * If you do that and select wcQueueSize = 1, this will be equivalent to running a WC learner using a certain period. E.g.:
  * 
@@ -44,26 +48,52 @@
 
 package moa.classifiers.meta;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-
-import org.joda.time.Instant;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.Regressor;
+import moa.classifiers.SemiSupervisedLearner;
 import moa.cluster.Clustering;
 import moa.clusterers.Clusterer;
+import moa.clusterers.threshold.DirectAssignmentClusterer;
+import moa.clusterers.threshold.ImmutableClusteringClusterer;
 import moa.core.Measurement;
 import moa.options.ClassOption;
 import moa.streams.ArffFileStream;
+import moa.streams.ColumnarFileStream;
+import moa.streams.InstanceStream;
+import moa.streams.SeekableArffFileStream;
+import moa.streams.SeekableInstanceStream;
+import moa.streams.TimestampIndex;
+import moa.streams.TimestampMergedInstanceStream;
 
 public class OATES extends AbstractClassifier implements Regressor {
 
@@ -87,7 +117,16 @@ public class OATES extends AbstractClassifier implements Regressor {
     //        "The number of models in the ensemble. It should be the number of CC models + 1 WC model.", 10, 1, Integer.MAX_VALUE);
     
 	public FileOption ccDataStreamFile = new FileOption("ccDataStream", 'd', 
-			"Name of the cc data stream.", "", ".arff", false);
+			"Name of the cc data stream. Files ending with " + ColumnarFileStream.FILE_EXTENSION + " are read as binary columnar files.", "", ".arff", false);
+	
+	public StringOption additionalCCDataStreamFilesOption = new StringOption("additionalCCDataStreams", 'f',
+			"Further CC data stream files, separated by semicolons. They must have the same attributes as the cc data stream and be " +
+			"sorted by timestamp. All CC data streams are merged by timestamp while they are read, and used as a single CC data stream.", "");
+	
+	public FlagOption ccTimestampIndexOption = new FlagOption("ccTimestampIndex", 'x',
+			"Use an index of the timestamps of the CC data stream to find the CC instances to train on before each WC instance, " +
+			"and to train on them without comparing their timestamps one by one. The index is built the first time a CC file is used " +
+			"and stored next to it, with the extension " + TimestampIndex.FILE_EXTENSION + ". Not used with additional CC data streams.");
 	//without numeric identifier and extension. " +
 	//		"NumId.arff will be added to the file name. " +
 	//		"Warning: these files must follow the same format as the WC data stream and the last attribute must be the timestamp.", "");
@@ -107,24 +146,79 @@ public class OATES extends AbstractClassifier implements Regressor {
             "If set to 1 while using empty CC data sets containing only the arff headers, this will run a WC approach using the specified period.", 
             Integer.MAX_VALUE, 1, Integer.MAX_VALUE);
 	
+	public FlagOption incrementalMappingFunctionsOption = new FlagOption("incrementalMappingFunctions", 'i',
+			"Retrain a mapping function from scratch only when its CC learner has changed or when WC instances it was trained on " +
+			"have left the WC queue. Otherwise, train it only on the WC instances queued since its last training. " +
+			"Only applies to mapping functions that support incremental training, and is not used when wcQueueSize = 1.");
+	
+	public FlagOption cachePredictionsOption = new FlagOption("cachePredictions", 'a',
+			"Keep the predictions given by each learner (through its mapping function, for CC learners) to the WC instances in the queue " +
+			"when updating weights, and recompute them only for learners or mapping functions that changed and for newly queued WC instances. " +
+			"Requires the WC queue to be modified only by OATES itself.");
+	
+	public FlagOption incrementalWeightsOption = new FlagOption("incrementalWeights", 'w',
+			"Update weights from the number of queued WC instances each learner loses, kept up to date as WC instances enter and leave " +
+			"the queue and as learners change, instead of replaying the whole WC queue. Gives the same weights as the default update. " +
+			"Implies cachePredictions, and is not used when wcQueueSize = 1.");
+	
+	public FlagOption publishedStatePredictionsOption = new FlagOption("publishedStatePredictions", 'o',
+			"Give predictions using only the learners, mapping functions and weights published at the end of the last WC training step. " +
+			"Predictions then do not read the CC data stream, retrain mapping functions or update weights. " +
+			"CC training examples are only used when training on WC instances, so predictions may not reflect CC examples with time " +
+			"stamps between the last WC training instance and the instance being predicted. " +
+			"The published learners are not copies, so predictions must still not run at the same time as training.");
+	
+	public IntOption ccTrainingThreadsOption = new IntOption("ccTrainingThreads", 't',
+			"Number of threads used to train CC learners on the CC instances read before each WC instance. If larger than 1, " +
+			"the CC instances are first assigned to clusters in time order and then each CC learner is trained on its own instances " +
+			"in parallel, in the same order as with a single thread.", 1, 1, Integer.MAX_VALUE);
+	
+	public IntOption evaluationThreadsOption = new IntOption("evaluationThreads", 'e',
+			"Number of threads used to obtain the predictions of the learners (through their mapping functions, for CC learners) " +
+			"when predicting and when updating weights. Predictions are always combined in the same order, so the results do not " +
+			"depend on this number. Learners and mapping functions must support predictions from different threads.", 1, 1, Integer.MAX_VALUE);
+	
+	public FlagOption timestampFreeViewsOption = new FlagOption("timestampFreeViews", 'v',
+			"Give CC learners, mapping functions and the clusterer views of the received instances without their timestamp, " +
+			"which share the values of the received instances, instead of copies without the timestamp. Gives the same results, " +
+			"but requires learners not to modify the values of the instances they are given.");
+	
+	public FileOption writeAheadLogOption = new FileOption("writeAheadLog", 'j',
+			"Log file where every WC instance trained on and every CC instance read is appended, so that OATES can be recovered after " +
+			"a crash by restoring its last checkpoint and replaying the log (see recover). The log is emptied whenever a checkpoint is " +
+			"written. A log with records is never discarded: OATES fails to train until it has been replayed. Not used if empty.", "", "log", true);
+	
+	public IntOption writeAheadLogCommitSizeOption = new IntOption("writeAheadLogCommitSize", 'k',
+			"Number of instances appended to the write-ahead log before it is forced to disk. Instances appended after the last " +
+			"time the log was forced to disk may be lost in a crash.", 100, 1, Integer.MAX_VALUE);
+	
 	// The first learners are the CC learners and the last learner is the WC learner.
+	// When an option relies on model versions (see areLearnerVersionsNeeded), each learner is wrapped in a VersionedClassifier, 
+	// which tells whether its model has changed.
 	protected ArrayList<Classifier> learners;
-	private Classifier baseLearner;
+	protected Classifier baseLearner;
 	
 	// Clustering algorithm to use for clustering CC instances
 	protected Clusterer clusterer;
-	private Clustering currentClusters;
+	protected Clustering currentClusters;
 	
 	// Mapping functions for CC learners
 	// All mapping functions should be classifiers implementing the MappingFunction interface.
 	protected ArrayList<Classifier> mappingFunctions;
-	private Classifier baseMappingFunction;
+	protected Classifier baseMappingFunction;
+	
+	// What each mapping function has been trained on since it was last reset. Used to refresh mapping functions incrementally.
+	protected ArrayList<MappingFunctionTrainingState> mappingFunctionsTrainingState;
 	
 	// Weight associated with each learner
 	protected ArrayList<Double> weights;
 	
 	
-	protected ArffFileStream ccDataStream;
+	protected InstanceStream ccDataStream;
+	// Number of instances read from ccDataStream so far
+	protected long numCCInstancesRead;
+	// Index of the timestamps of ccDataStream, when ccTimestampIndexOption is set; null otherwise
+	protected TimestampIndex ccTimestampIndex;
 	protected boolean isCCClassIndexSet;
 	
 	// Used to set the weights of the learners, instead of the beta values.
@@ -134,28 +228,125 @@ public class OATES extends AbstractClassifier implements Regressor {
 	// most recent WC training example may be insufficient to properly test each updated CC model.
 	// The mapping function faces a similar issue.
 	// Stores instances without time stamps.
-	protected ArrayList<Instance> wcPastInstancesQueue;
+	// The instance at index j of the queue is the (wcPastInstancesQueue.getNumRemoved() + j)-th WC instance ever queued.
+	protected InstanceRingBuffer wcPastInstancesQueue;
+	
+	// Predictions of the learners for the WC instances in wcPastInstancesQueue, used to update weights when cachePredictionsOption is set.
+	// cachedVotes[i][p % cachedVotesCapacity] is the prediction of learner i (through its mapping function, in the case of CC learners)
+	// for the WC instance at absolute queue position p. Column i is valid for the queue positions before cachedVotesEnd[i] 
+	// as long as learner i and its mapping function still have the model versions the column was computed with.
+	protected double[][] cachedVotes;
+	protected int cachedVotesCapacity;
+	protected long[] cachedVotesEnd;
+	protected long[] cachedVotesLearnerVersion;
+	protected long[] cachedVotesMappingFunctionVersion;
+	// Increased every time a column is recomputed completely
+	protected long[] cachedVotesGeneration;
+	
+	// Used by the incremental weight update.
+	// queueWinners[p % cachedVotesCapacity] is the index of the learner with the smallest error on the WC instance at absolute queue 
+	// position p (-1 if no learner has been trained), and numWins[i] is the number of queued WC instances won by learner i.
+	// Valid for the queue positions between winnersStart (inclusive) and winnersEnd (exclusive).
+	protected int[] queueWinners;
+	protected int[] numWins;
+	protected long winnersStart, winnersEnd;
+	// Column generations and training status of the learners when the winners were last updated
+	protected long[] winnersColumnGeneration;
+	protected boolean[] winnersLearnerTrained;
+	// betaPowers[k] is 1.0 multiplied k times by beta, i.e., the weight of a learner that lost k times before normalisation
+	protected double[] betaCCPowers, betaWCPowers;
 	
 	// We need to read the next instance of each CC data stream to check whether it can already be used for training.
 	// However, if the timestamp of this CC instance indicates that it cannot be used for training yet, we need to store it in
 	// this bk so that it can be used for training later.
 	// These instances have not been used for training the clusters and the CC learners. 
 	// Stores instances with time stamps.
-	protected ArrayList<Instance> ccPastInstancesQueue;
+	protected InstanceRingBuffer ccPastInstancesQueue;
 	
 	// These instances have already been used to train the clusters, but not yet to train the corresponding CC learners.
 	// Stores instances without time stamps.
-	protected ArrayList<Instance> ccInstancesWaitingForWindowTraining;
+	protected InstanceRingBuffer ccInstancesWaitingForWindowTraining;
+	// Clusters the instances in ccInstancesWaitingForWindowTraining were last checked against. Only used with ImmutableClusteringClusterers, 
+	// which give the same clusters to instances as long as they return the same Clustering.
+	protected transient Clustering waitingInstancesCheckedClusters;
 	
 	protected int timeStep;
 	
 	// Maintains attribute info about instances without timestamp
 	protected Instances datasetNoTimeStamp;
+	// Header of datasetNoTimeStamp shared by the views of instances without timestamp, and the dataset it was created for
+	protected transient InstancesHeader headerNoTimeStamp;
+	protected transient Instances headerNoTimeStampDataset;
+	
+	// CC instances assigned to each CC learner but not used for training yet, kept in the order they were assigned.
+	// Only used while trainCCModels runs with more than one CC training thread; null otherwise.
+	protected IdentityHashMap<Classifier, ArrayList<Instance>> pendingCCTraining;
+	// CC learners whose pending instances will start their training
+	protected IdentityHashMap<Classifier, Boolean> pendingCCTrainingStarts;
+	protected transient ForkJoinPool ccTrainingPool;
+	
+	// Used to obtain the predictions of the learners when evaluationThreadsOption is larger than 1
+	protected transient ForkJoinPool evaluationPool;
+	
+	// Ensemble used for predictions when publishedStatePredictionsOption is set, published again after each WC training step.
+	// Its predictors are the live learners and mapping functions, so it must only be used from the thread that trains OATES.
+	protected EnsembleSnapshot publishedSnapshot;
+	
+	// Log of the ingested instances, when writeAheadLogOption is set. Opened when the first instance is logged or when the log is replayed.
+	// Not copied with OATES, so copies do not write to the same log.
+	protected transient OATESWriteAheadLog writeAheadLog;
+	// CC instances read from the write-ahead log when replaying it and not used yet. They are used before reading the CC data stream
+	// again, as the CC data stream has already been moved past them. Null if there are none.
+	protected ArrayDeque<Instance> replayedCCInstances;
+	// Whether the write-ahead log is being replayed, in which case instances are not appended to it again
+	protected boolean isReplayingLog;
+	// Generation of the write-ahead log holding the instances ingested since the last checkpoint, increased by each checkpoint.
+	// Stored in checkpoints, so that records of an older generation, which a checkpoint already contains, are not replayed.
+	protected long writeAheadLogGeneration;
 	
 	public OATES() {
 		super();
 	}
 	
+	// Describes the WC instances a mapping function was trained on since its last reset, and the state of its CC learner at that time.
+	// Positions are absolute, i.e., they count all WC instances ever added to wcPastInstancesQueue.
+	protected static class MappingFunctionTrainingState implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		protected long ccLearnerVersion = -1;
+		protected long firstWCInstance = -1;
+		protected long endWCInstance = -1;
+		
+		// Increased every time the mapping function is reset or trained
+		protected long version = 0;
+	}
+	
+	// Members, weights and dataset used to give predictions, as they were at the end of a WC training step.
+	// The header of the dataset is created when the snapshot is published, so that predictions with timestampFreeViewsOption share it.
+	// The k-th member gives its prediction through predictors[k], i.e., the mapping function of CC learners or the WC learner itself.
+	// The predictors are the objects OATES trains, not copies, so the snapshot does not make predictions safe to run at the same time as
+	// training. Only the list of members and their weights are fixed; the predictors themselves keep changing as CC learners are trained.
+	protected static class EnsembleSnapshot implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		protected final Classifier[] predictors;
+		protected final boolean[] trained;
+		protected final double[] weights;
+		protected final Instances datasetNoTimeStamp;
+		protected final InstancesHeader headerNoTimeStamp;
+		
+		protected EnsembleSnapshot(Classifier []predictors, boolean []trained, double []weights, Instances datasetNoTimeStamp,
+				InstancesHeader headerNoTimeStamp) {
+			this.predictors = predictors;
+			this.trained = trained;
+			this.weights = weights;
+			this.datasetNoTimeStamp = datasetNoTimeStamp;
+			this.headerNoTimeStamp = headerNoTimeStamp;
+		}
+	}
+	
 	// This method is inspired by OzaBag's.
 	@Override
 	public void resetLearningImpl() {
@@ -165,11 +356,12 @@ public class OATES extends AbstractClassifier implements Regressor {
         learners = new ArrayList<Classifier>(); 
         weights = new ArrayList<Double>();
         mappingFunctions = new ArrayList<Classifier>();
+        mappingFunctionsTrainingState = new ArrayList<MappingFunctionTrainingState>();
         
 		// Create WC learner and reset its weight
         baseLearner = (Classifier) getPreparedClassOption(this.baseLearnerOption);
         baseLearner.resetLearning();
-        learners.add(baseLearner.copy());
+        learners.add(createLearner());
         weights.add(1.0);
         
         baseMappingFunction = (Classifier) getPreparedClassOption(this.mappingFunctionOption);
@@ -186,15 +378,38 @@ public class OATES extends AbstractClassifier implements Regressor {
         
 		// Load CC data stream
         isCCClassIndexSet = false;
-        ccDataStream = new ArffFileStream(ccDataStreamFile.getValue(),-1);
+        ccDataStream = openCCDataStream();
+        numCCInstancesRead = 0;
+        ccTimestampIndex = null;
+        if (ccTimestampIndexOption.isSet()) {
+        	if (ccDataStream instanceof SeekableInstanceStream) {
+        		ccTimestampIndex = TimestampIndex.loadOrBuild((SeekableInstanceStream) ccDataStream, ccDataStream.getHeader().numAttributes()-1);
+        		if (!ccTimestampIndex.isSorted()) {
+        			System.err.println("Warning: CC data stream is not sorted by timestamp. Its timestamp index will not be used.");
+        			ccTimestampIndex = null;
+        		}
+        	}
+        	else System.err.println("Warning: timestamp index is not used with additional CC data streams.");
+        }
         
         
         // Reset the queue of WC training examples and the BK CC training examples
-        this.wcPastInstancesQueue = new ArrayList<Instance>();
-        this.ccPastInstancesQueue = new ArrayList<Instance>();
-        this.ccInstancesWaitingForWindowTraining = new ArrayList<Instance>();
+        this.wcPastInstancesQueue = new InstanceRingBuffer(this.wcPastInstancesQueueSize.getValue());
+        this.ccPastInstancesQueue = new InstanceRingBuffer();
+        this.ccInstancesWaitingForWindowTraining = new InstanceRingBuffer();
+        waitingInstancesCheckedClusters = null;
+        cachedVotes = null;
+        queueWinners = null;
+        betaCCPowers = null;
+        betaWCPowers = null;
         
         datasetNoTimeStamp = null;
+        publishedSnapshot = null;
+        
+        closeWriteAheadLog();
+        replayedCCInstances = null;
+        isReplayingLog = false;
+        writeAheadLogGeneration = 0;
         
 	}	
 	
@@ -207,18 +422,48 @@ public class OATES extends AbstractClassifier implements Regressor {
 	public int getNumTrainedLearners() {
 		int numTrainedLearners = 0;
 		for (int i=0; i<learners.size(); ++i)
-			if (learners.get(i).trainingHasStarted())
+			if (learnerTrainingHasStarted(i))
 				numTrainedLearners++;
 		return numTrainedLearners;
 	}
 	
+	// Whether learner i has been trained, counting CC instances already assigned to it but not used for training yet
+	protected boolean learnerTrainingHasStarted(int i) {
+		Classifier learner = learners.get(i);
+		return learner.trainingHasStarted() || (pendingCCTrainingStarts != null && pendingCCTrainingStarts.containsKey(learner));
+	}
+	
+	// Whether an option relies on the model versions of the learners, in which case they are wrapped in VersionedClassifiers
+	protected boolean areLearnerVersionsNeeded() {
+		return incrementalMappingFunctionsOption.isSet() || cachePredictionsOption.isSet() || incrementalWeightsOption.isSet();
+	}
+	
+	// New untrained learner, wrapped in a VersionedClassifier if areLearnerVersionsNeeded
+	protected Classifier createLearner() {
+		Classifier learner = baseLearner.copy();
+		if (areLearnerVersionsNeeded())
+			return new VersionedClassifier(learner);
+		return learner;
+	}
+	
+	// Model version of learner i, which changes whenever the model of the learner changes, including changes the learner makes
+	// on its own if it is a VersionedModel (e.g., a WEKAClassifierTrainSlidingWindow replacing its classifier after a background rebuild).
+	// Always 0 if the learners are not wrapped in VersionedClassifiers, as no option uses it then.
+	protected long getLearnerVersion(int i) {
+		Classifier learner = learners.get(i);
+		if (learner instanceof VersionedClassifier)
+			return ((VersionedClassifier) learner).getModelVersion();
+		return 0;
+	}
+	
 	// Create and add <num> new CC learners to the beginning of the learners array list
 	// Add its corresponding weight and mapping function too
 	protected void addNewCCLearners(int num) {
 		for (int i=0; i<num; ++i) {
-			learners.add(0,baseLearner.copy());
+			learners.add(0,createLearner());
 			weights.add(0,1.0); 
 			mappingFunctions.add(0,baseMappingFunction.copy());
+			mappingFunctionsTrainingState.add(0,new MappingFunctionTrainingState());
 			((MappingFunction) mappingFunctions.get(0)).setCCLearner(learners.get(0));
 		}
 	}
@@ -231,6 +476,33 @@ public class OATES extends AbstractClassifier implements Regressor {
 	}
 	
 	
+	// Open the CC data stream, merging it with the additional CC data streams by timestamp if there are any
+	protected InstanceStream openCCDataStream() {
+		InstanceStream firstStream = openCCDataStreamFile(ccDataStreamFile.getValue());
+		
+		String additionalFiles = additionalCCDataStreamFilesOption.getValue().trim();
+		if (additionalFiles.length() == 0)
+			return firstStream;
+		
+		String []fileNames = additionalFiles.split(";");
+		InstanceStream []streams = new InstanceStream[fileNames.length+1];
+		streams[0] = firstStream;
+		for (int k=0; k<fileNames.length; ++k)
+			streams[k+1] = openCCDataStreamFile(fileNames[k].trim());
+		
+		// The timestamp is the last attribute
+		return new TimestampMergedInstanceStream(streams, firstStream.getHeader().numAttributes()-1);
+	}
+	
+	// Open a single CC data stream file. Files in the binary columnar format are recognised by their extension, all others are read as ARFF.
+	protected InstanceStream openCCDataStreamFile(String fileName) {
+		if (fileName.endsWith(ColumnarFileStream.FILE_EXTENSION))
+			return new ColumnarFileStream(fileName,-1);
+		if (ccTimestampIndexOption.isSet())
+			return new SeekableArffFileStream(fileName,-1);
+		return new ArffFileStream(fileName,-1);
+	}
+	
 	// Set the class index of the CC data streams to be the same as that of inst
 	protected void setCCClassIndex(Instance inst) throws Exception {
 
@@ -275,27 +547,36 @@ public class OATES extends AbstractClassifier implements Regressor {
 
 	@Override
 	public void trainOnInstanceImpl(Instance inst) {
+		trainOnWCInstance(inst, true);
+	}
+	
+	// Train on a WC instance. If refreshModels is false, mapping functions are not retrained and weights are not updated,
+	// which is only valid if they are refreshed before they are used again (see trainOnInstances).
+	protected boolean trainOnWCInstance(Instance inst, boolean refreshModels) {
 		
 		if (!makeChecks(inst)) {
 			System.err.println("Halting training.");
-			return;
+			return false;
 		}
 		
+		if (!isReplayingLog)
+			appendToWriteAheadLog(OATESWriteAheadLog.WC, inst);
+		
 		// Train CC models and update mapping functions accordingly
 		if (this.wcPastInstancesQueueSize.getValue() != 1 || timeStep == 0) {// TEST<--- added this if to make this like the original dycom
 			trainCCModels(inst);
-			trainMappingFunctions();
-			updateWeights(); // Update weights based on the up-to-date CC models and mapping functions
+			if (refreshModels) {
+				trainMappingFunctions();
+				updateWeights(); // Update weights based on the up-to-date CC models and mapping functions
+			}
 		}
 		
 		// Add WC instances for training only at every period time steps
 		if (timeStep % this.period.getValue() == 0) {
 			// Store this instance in the list of most recent WC training instances
 			if (this.wcPastInstancesQueue.size() == this.wcPastInstancesQueueSize.getValue())
-				wcPastInstancesQueue.remove(0);
-			Instance instNoTimeStamp = inst.copy();
-			deleteTimeStamp(instNoTimeStamp);
-			wcPastInstancesQueue.add(instNoTimeStamp);
+				wcPastInstancesQueue.removeFirst();
+			wcPastInstancesQueue.add(inst, inst.numAttributes()-1, datasetNoTimeStamp); // stored without time stamp
 		}
 		else { 
 			this.trainingWeightSeenByModel = this.trainingWeightSeenByModel - inst.weight(); // correct the statistics about how much WC weight has been used by OATES for training. 
@@ -305,15 +586,17 @@ public class OATES extends AbstractClassifier implements Regressor {
 			
 		// Use WC instances for training only at every period time steps
 		if (timeStep % this.period.getValue() == 0) {
-			updateWeights(); // update the weights of the learners based on the most recent WC instance before using this WC instance to train any mapping function or WC learner.
-			
-			trainMappingFunctions();
+			if (refreshModels) {
+				updateWeights(); // update the weights of the learners based on the most recent WC instance before using this WC instance to train any mapping function or WC learner.
+				
+				trainMappingFunctions();
+			}
 			
 			// Train WC model
 			learners.get(learners.size()-1).trainOnInstance(wcPastInstancesQueue.get(wcPastInstancesQueue.size()-1));
 			
 			// The weight of the WC learner will be used for the first time, so all weights need to be normalised
-			if (timeStep == 0) {
+			if (timeStep == 0 && refreshModels) {
 				weights.set(weights.size()-1, 1.0/getNumTrainedLearners()); // <---le18Aug2017 this makes this equal to the original dycom
 				normaliseWeights();
 			}
@@ -322,49 +605,139 @@ public class OATES extends AbstractClassifier implements Regressor {
 		}
 		
 		timeStep++;
+		
+		if (publishedStatePredictionsOption.isSet() && refreshModels)
+			publishSnapshot();
+		
+		return true;
 
 	}
 	
+	// Train on a batch of WC instances in time order, e.g., to backfill historical WC data. Gives the same state as calling
+	// trainOnInstance on each instance of the batch, but mapping functions are retrained and weights are updated only when training
+	// on the last instance. This is possible because, unless wcQueueSize = 1, they are recomputed from the CC learners, the WC learner 
+	// and the WC queue every time, and no predictions are given in between. With wcQueueSize = 1, weights depend on their previous 
+	// values, so each instance is trained on as usual.
+	public void trainOnInstances(Instances batch) {
+		
+		// Instances skipped in the same way as by trainOnInstance
+		int last = batch.numInstances()-1;
+		while (last >= 0 && (batch.instance(last).weight() <= 0.0 || batch.instance(last).classIsMissing()))
+			last--;
+		
+		for (int j=0; j<=last; ++j) {
+			Instance inst = batch.instance(j);
+			if (j == last || wcPastInstancesQueueSize.getValue() == 1)
+				trainOnInstance(inst);
+			else if (inst.weight() > 0.0 && !inst.classIsMissing()) {
+				this.trainingWeightSeenByModel += inst.weight();
+				if (!trainOnWCInstance(inst, false))
+					return;
+			}
+		}
+	}
+	
 	// Retrain mapping functions using the instances in wcPastInstancesQueue
 	protected void trainMappingFunctions() {
 
+		// trainingStart[i] is the position of the first queued WC instance to train mapping function i on, or -1 if it is not trained.
+		// The mapping functions are then trained together, so that each queued instance is created only once.
+		long []trainingStart = new long[this.mappingFunctions.size()];
+		long firstTrainingStart = wcPastInstancesQueue.getNumAdded();
+		
 		for (int i=0; i<this.mappingFunctions.size(); ++i) {
+			trainingStart[i] = -1;
+			
 			// Only mapping functions corresponding to CC models that have already been trained should be trained
 			if (learners.get(i).trainingHasStarted()) {
-				if (wcPastInstancesQueueSize.getValue() != 1) // TEST<--- added this if to make this like the original dycom  
-					mappingFunctions.get(i).resetLearning();
-				((MappingFunction) mappingFunctions.get(i)).setCCLearner(learners.get(i));
-				for (int j=0; j<wcPastInstancesQueue.size(); ++j) 
-					mappingFunctions.get(i).trainOnInstance(wcPastInstancesQueue.get(j));
+				MappingFunctionTrainingState state = mappingFunctionsTrainingState.get(i);
+				
+				if (canTrainMappingFunctionIncrementally(i)) {
+					// Same result as resetting and replaying the whole queue, as the CC learner did not change since the last training
+					if (state.endWCInstance < wcPastInstancesQueue.getNumAdded())
+						state.version++;
+					trainingStart[i] = state.endWCInstance;
+				}
+				else {
+					// Read before training, so that a change of the CC learner during training is noticed next time
+					long learnerVersion = getLearnerVersion(i);
+					if (wcPastInstancesQueueSize.getValue() != 1) // TEST<--- added this if to make this like the original dycom  
+						mappingFunctions.get(i).resetLearning();
+					((MappingFunction) mappingFunctions.get(i)).setCCLearner(learners.get(i));
+					trainingStart[i] = wcPastInstancesQueue.getNumRemoved();
+					
+					state.ccLearnerVersion = learnerVersion;
+					state.version++;
+					state.firstWCInstance = wcPastInstancesQueue.getNumRemoved();
+				}
+				state.endWCInstance = wcPastInstancesQueue.getNumAdded();
+				firstTrainingStart = Math.min(firstTrainingStart, trainingStart[i]);
 			}
 		}
+		
+		for (long p=firstTrainingStart; p<wcPastInstancesQueue.getNumAdded(); ++p) {
+			Instance queued = wcPastInstancesQueue.get((int) (p - wcPastInstancesQueue.getNumRemoved()));
+			for (int i=0; i<this.mappingFunctions.size(); ++i)
+				if (trainingStart[i] != -1 && trainingStart[i] <= p)
+					mappingFunctions.get(i).trainOnInstance(queued);
+		}
+	}
+	
+	// Check whether mapping function i can be refreshed by training it only on the WC instances queued since its last training.
+	// This requires its CC learner not to have been trained since then, and all WC instances it was trained on to still be in the queue.
+	protected boolean canTrainMappingFunctionIncrementally(int i) {
+		if (!incrementalMappingFunctionsOption.isSet() || wcPastInstancesQueueSize.getValue() == 1 
+				|| !(mappingFunctions.get(i) instanceof IncrementalMappingFunction))
+			return false;
+		
+		MappingFunctionTrainingState state = mappingFunctionsTrainingState.get(i);
+		return state.endWCInstance != -1 
+				&& state.ccLearnerVersion == getLearnerVersion(i)
+				&& state.firstWCInstance == wcPastInstancesQueue.getNumRemoved();
 	}
 
 	
 	// Update weights based on the past WC examples
 	protected void updateWeights() {
 		
+		if (incrementalWeightsOption.isSet() && wcPastInstancesQueueSize.getValue() != 1) {
+			updateWeightsFromLossCounts();
+			return;
+		}
+		
 		if (wcPastInstancesQueueSize.getValue() != 1) { // TEST<--- added this if to make this like the original dycom
 			for (int i=0; i<weights.size(); ++i) {
 				weights.set(i, 1.0);
 			}
 		}
 		
+		double [][]queueVotes = null;
+		if (cachePredictionsOption.isSet())
+			refreshCachedVotes();
+		else if (evaluationThreadsOption.getValue() != 1)
+			queueVotes = getQueueVotes();
+		
 		for (int j=0; j<wcPastInstancesQueue.size(); ++j) {
 			
-			Instance instNoTimeStamp = wcPastInstancesQueue.get(j);
+			// With cached or precomputed predictions, the instance itself is not needed
+			Instance instNoTimeStamp = cachePredictionsOption.isSet() || queueVotes != null ? null : wcPastInstancesQueue.get(j);
+			double classValue = wcPastInstancesQueue.classValue(j);
 			
 			double minError = Double.MAX_VALUE;
 			int indexMinError = -1;
 			for (int i=0; i<weights.size(); ++i) {
 				if (learners.get(i).trainingHasStarted()) {
-					double []votes = null;
+					double vote;
 					
-					if (i < weights.size()-1)
-						votes = mappingFunctions.get(i).getVotesForInstance(instNoTimeStamp);
-					else votes = learners.get(i).getVotesForInstance(instNoTimeStamp);
+					if (cachePredictionsOption.isSet())
+						vote = cachedVotes[i][(int) ((wcPastInstancesQueue.getNumRemoved() + j) % cachedVotesCapacity)];
+					else if (queueVotes != null)
+						vote = queueVotes[i][j];
+					else if (i < weights.size()-1)
+						vote = mappingFunctions.get(i).getVotesForInstance(instNoTimeStamp)[0];
+					else vote = learners.get(i).getVotesForInstance(instNoTimeStamp)[0];
 					
-					double error = Math.abs(votes[0] - instNoTimeStamp.classValue());
+					double error = Math.abs(vote - classValue);
 					
 					if (error < minError) {
 						minError = error;
@@ -388,6 +761,262 @@ public class OATES extends AbstractClassifier implements Regressor {
 		
 	}
 
+	// Bring cachedVotes up to date with wcPastInstancesQueue, the learners and the mapping functions.
+	// Only the columns of learners or mapping functions that changed are recomputed completely. 
+	// Otherwise, only the predictions for WC instances queued since the column was last refreshed are computed.
+	protected void refreshCachedVotes() {
+		
+		ensureCachedVotesSize();
+		
+		if (evaluationThreadsOption.getValue() == 1) {
+			for (int i=0; i<learners.size(); ++i)
+				if (learners.get(i).trainingHasStarted())
+					refreshCachedVotesColumn(i);
+			return;
+		}
+		
+		// Each column is refreshed by its own task
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i=0; i<learners.size(); ++i) {
+			if (!learners.get(i).trainingHasStarted())
+				continue;
+			final int member = i;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					refreshCachedVotesColumn(member);
+					return null;
+				}
+			});
+		}
+		invokeAllTasks(getEvaluationPool(), tasks, "obtaining predictions of the learners");
+	}
+	
+	// Bring column i of cachedVotes up to date. Learner i must have been trained.
+	protected void refreshCachedVotesColumn(int i) {
+		
+		Classifier predictor = getPredictor(i);
+		long mappingFunctionVersion = 0;
+		if (i < learners.size()-1)
+			mappingFunctionVersion = mappingFunctionsTrainingState.get(i).version;
+		
+		// Read before predicting, so that a change of the learner while predicting is noticed next time
+		long learnerVersion = getLearnerVersion(i);
+		long first = cachedVotesEnd[i];
+		if (cachedVotesLearnerVersion[i] != learnerVersion || cachedVotesMappingFunctionVersion[i] != mappingFunctionVersion) {
+			first = wcPastInstancesQueue.getNumRemoved();
+			cachedVotesGeneration[i]++;
+		}
+		else if (first < wcPastInstancesQueue.getNumRemoved())
+			first = wcPastInstancesQueue.getNumRemoved();
+		
+		for (long p=first; p<wcPastInstancesQueue.getNumAdded(); ++p)
+			cachedVotes[i][(int) (p % cachedVotesCapacity)] = predictor.getVotesForInstance(wcPastInstancesQueue.get((int) (p - wcPastInstancesQueue.getNumRemoved())))[0];
+		
+		cachedVotesEnd[i] = wcPastInstancesQueue.getNumAdded();
+		cachedVotesLearnerVersion[i] = learnerVersion;
+		cachedVotesMappingFunctionVersion[i] = mappingFunctionVersion;
+	}
+	
+	// Make cachedVotes have one column per learner and enough rows for all instances in wcPastInstancesQueue
+	protected void ensureCachedVotesSize() {
+		
+		if (cachedVotes == null) {
+			cachedVotes = new double[0][];
+			cachedVotesCapacity = 0;
+			cachedVotesEnd = new long[0];
+			cachedVotesLearnerVersion = new long[0];
+			cachedVotesMappingFunctionVersion = new long[0];
+			cachedVotesGeneration = new long[0];
+		}
+		
+		// New CC learners are always added to the beginning of the list of learners, so the existing columns are shifted to the right
+		if (cachedVotes.length != learners.size()) {
+			int numNewColumns = learners.size() - cachedVotes.length;
+			double [][]votes = new double[learners.size()][];
+			long []end = new long[learners.size()];
+			long []learnerVersion = new long[learners.size()];
+			long []mappingFunctionVersion = new long[learners.size()];
+			long []generation = new long[learners.size()];
+			
+			System.arraycopy(cachedVotes, 0, votes, numNewColumns, cachedVotes.length);
+			System.arraycopy(cachedVotesEnd, 0, end, numNewColumns, cachedVotes.length);
+			System.arraycopy(cachedVotesLearnerVersion, 0, learnerVersion, numNewColumns, cachedVotes.length);
+			System.arraycopy(cachedVotesMappingFunctionVersion, 0, mappingFunctionVersion, numNewColumns, cachedVotes.length);
+			System.arraycopy(cachedVotesGeneration, 0, generation, numNewColumns, cachedVotes.length);
+			for (int i=0; i<numNewColumns; ++i) {
+				votes[i] = new double[cachedVotesCapacity];
+				end[i] = -1;
+				learnerVersion[i] = -1;
+				mappingFunctionVersion[i] = -1;
+			}
+			
+			cachedVotes = votes;
+			cachedVotesEnd = end;
+			cachedVotesLearnerVersion = learnerVersion;
+			cachedVotesMappingFunctionVersion = mappingFunctionVersion;
+			cachedVotesGeneration = generation;
+		}
+		
+		if (wcPastInstancesQueue.size() > cachedVotesCapacity) {
+			int newCapacity = (int) Math.max(wcPastInstancesQueue.size(), 
+					Math.min(wcPastInstancesQueueSize.getValue(), 2L * cachedVotesCapacity));
+			
+			for (int i=0; i<cachedVotes.length; ++i) {
+				double []votes = new double[newCapacity];
+				for (long p=wcPastInstancesQueue.getNumRemoved(); p<Math.min(cachedVotesEnd[i], wcPastInstancesQueue.getNumAdded()); ++p)
+					votes[(int) (p % newCapacity)] = cachedVotes[i][(int) (p % cachedVotesCapacity)];
+				cachedVotes[i] = votes;
+			}
+			cachedVotesCapacity = newCapacity;
+		}
+	}
+
+	// Same result as the default weight update, which resets the weights to 1.0 and multiplies the weight of each trained learner by
+	// beta for every queued WC instance on which it does not have the smallest error.
+	// Here, the winner of each queued WC instance is kept between calls, so that only the winners of new WC instances and the winners
+	// affected by learners that changed need to be determined. Weights are then obtained from the number of losses of each learner.
+	protected void updateWeightsFromLossCounts() {
+		
+		refreshCachedVotes();
+		
+		int numLearners = learners.size();
+		boolean []trained = new boolean[numLearners];
+		for (int i=0; i<numLearners; ++i)
+			trained[i] = learners.get(i).trainingHasStarted();
+		
+		if (queueWinners == null || numWins.length != numLearners || queueWinners.length != cachedVotesCapacity) {
+			// Learners were added or the queue grew beyond the capacity of the cache, so all winners are determined again
+			queueWinners = new int[cachedVotesCapacity];
+			numWins = new int[numLearners];
+			for (long p=wcPastInstancesQueue.getNumRemoved(); p<wcPastInstancesQueue.getNumAdded(); ++p) {
+				int winner = findQueueWinner(p, trained);
+				queueWinners[(int) (p % cachedVotesCapacity)] = winner;
+				if (winner != -1)
+					numWins[winner]++;
+			}
+		}
+		else {
+			// Forget the winners of WC instances that left the queue
+			for (long p=winnersStart; p<Math.min(winnersEnd, wcPastInstancesQueue.getNumRemoved()); ++p) {
+				int winner = queueWinners[(int) (p % cachedVotesCapacity)];
+				if (winner != -1)
+					numWins[winner]--;
+			}
+			long oldEnd = Math.max(winnersEnd, wcPastInstancesQueue.getNumRemoved());
+			
+			// Learners whose predictions or training status changed may change the winner of the WC instances already in the queue
+			boolean []changed = new boolean[numLearners];
+			boolean anyChanged = false;
+			for (int i=0; i<numLearners; ++i) {
+				changed[i] = winnersColumnGeneration[i] != cachedVotesGeneration[i] || winnersLearnerTrained[i] != trained[i];
+				anyChanged = anyChanged || changed[i];
+			}
+			
+			if (anyChanged) {
+				for (long p=wcPastInstancesQueue.getNumRemoved(); p<oldEnd; ++p) {
+					int row = (int) (p % cachedVotesCapacity);
+					int winner = queueWinners[row];
+					int newWinner;
+					
+					if (winner != -1 && changed[winner])
+						newWinner = findQueueWinner(p, trained);
+					else {
+						// The old winner beat all learners that did not change, so the new winner is either the old winner or a learner that changed
+						double classValue = wcPastInstancesQueue.classValue((int) (p - wcPastInstancesQueue.getNumRemoved()));
+						double minError = winner == -1 ? Double.MAX_VALUE : Math.abs(cachedVotes[winner][row] - classValue);
+						newWinner = winner;
+						for (int i=0; i<numLearners; ++i) {
+							if (changed[i] && trained[i]) {
+								double error = Math.abs(cachedVotes[i][row] - classValue);
+								if (error < minError || (error == minError && newWinner != -1 && i < newWinner)) {
+									minError = error;
+									newWinner = i;
+								}
+							}
+						}
+					}
+					
+					if (newWinner != winner) {
+						if (winner != -1)
+							numWins[winner]--;
+						if (newWinner != -1)
+							numWins[newWinner]++;
+						queueWinners[row] = newWinner;
+					}
+				}
+			}
+			
+			// Determine the winners of the newly queued WC instances
+			for (long p=oldEnd; p<wcPastInstancesQueue.getNumAdded(); ++p) {
+				int winner = findQueueWinner(p, trained);
+				queueWinners[(int) (p % cachedVotesCapacity)] = winner;
+				if (winner != -1)
+					numWins[winner]++;
+			}
+		}
+		
+		winnersStart = wcPastInstancesQueue.getNumRemoved();
+		winnersEnd = wcPastInstancesQueue.getNumAdded();
+		winnersColumnGeneration = cachedVotesGeneration.clone();
+		winnersLearnerTrained = trained;
+		
+		// Every trained learner loses on all queued WC instances it does not win
+		int numQueued = wcPastInstancesQueue.size();
+		for (int i=0; i<numLearners; ++i) {
+			if (!trained[i])
+				weights.set(i, 1.0);
+			else if (i < numLearners-1)
+				weights.set(i, getBetaPower(true, numQueued - numWins[i]));
+			else weights.set(i, getBetaPower(false, numQueued - numWins[i]));
+		}
+		
+		normaliseWeights();
+	}
+	
+	// Index of the trained learner with the smallest error on the WC instance at absolute queue position p, 
+	// or -1 if there is none. Ties are broken in favour of the learner with the smallest index, as in updateWeights.
+	protected int findQueueWinner(long p, boolean []trained) {
+		int row = (int) (p % cachedVotesCapacity);
+		double classValue = wcPastInstancesQueue.classValue((int) (p - wcPastInstancesQueue.getNumRemoved()));
+		double minError = Double.MAX_VALUE;
+		int indexMinError = -1;
+		for (int i=0; i<trained.length; ++i) {
+			if (trained[i]) {
+				double error = Math.abs(cachedVotes[i][row] - classValue);
+				if (error < minError) {
+					minError = error;
+					indexMinError = i;
+				}
+			}
+		}
+		return indexMinError;
+	}
+	
+	// 1.0 multiplied numLosses times by betaCC (for CC learners) or betaWC (for the WC learner).
+	// The products are computed once in the same order as in updateWeights, so that the resulting weights are identical.
+	protected double getBetaPower(boolean isCCLearner, int numLosses) {
+		double beta = isCCLearner ? betaCC.getValue() : betaWC.getValue();
+		double []powers = isCCLearner ? betaCCPowers : betaWCPowers;
+		
+		if (powers == null || powers[1] != beta || powers.length <= numLosses) {
+			int length = Math.max(numLosses + 1, 2);
+			if (powers != null && powers[1] == beta)
+				length = (int) Math.min(Integer.MAX_VALUE, Math.max(length, 2L * powers.length));
+			double []newPowers = new double[length];
+			newPowers[0] = 1.0;
+			for (int k=1; k<length; ++k)
+				newPowers[k] = newPowers[k-1] * beta;
+			powers = newPowers;
+			
+			if (isCCLearner)
+				betaCCPowers = powers;
+			else betaWCPowers = powers;
+		}
+		
+		return powers[numLosses];
+	}
+
 	protected void normaliseWeights() {
 		double sumWeights = 0.0;
 		
@@ -403,6 +1032,14 @@ public class OATES extends AbstractClassifier implements Regressor {
 	}
 	
 	
+	// Find the cluster of currentClusters to which inst belongs, asking the clusterer directly if it supports it.
+	// inst should be an instance without timestamp
+	protected int indexClusterInstanceBelongsTo(Instance inst) {
+		if (clusterer instanceof DirectAssignmentClusterer)
+			return ((DirectAssignmentClusterer) clusterer).getClusterIndex(inst);
+		return indexClusterInstanceBelongsTo(currentClusters, inst);
+	}
+	
 	// Find the cluster to which inst belongs.
 	// inst should be an instance without timestamp
 	protected int indexClusterInstanceBelongsTo(Clustering clusters, Instance inst) {
@@ -427,6 +1064,26 @@ public class OATES extends AbstractClassifier implements Regressor {
 		inst.setDataset(datasetNoTimeStamp);
 	}
 	
+	// inst without timestamp, belonging to datasetNoTimeStamp: a view of inst if timestampFreeViewsOption is set, or else a copy
+	protected Instance withoutTimeStamp(Instance inst) {
+		if (!timestampFreeViewsOption.isSet()) {
+			Instance instNoTimeStamp = inst.copy();
+			deleteTimeStamp(instNoTimeStamp);
+			return instNoTimeStamp;
+		}
+		
+		return new TimestampFreeInstance(inst, getHeaderNoTimeStamp());
+	}
+	
+	// Header of datasetNoTimeStamp, created only when the dataset changes
+	protected InstancesHeader getHeaderNoTimeStamp() {
+		if (headerNoTimeStampDataset != datasetNoTimeStamp) {
+			headerNoTimeStamp = new InstancesHeader(datasetNoTimeStamp);
+			headerNoTimeStampDataset = datasetNoTimeStamp;
+		}
+		return headerNoTimeStamp;
+	}
+	
 //	// Delete an attribute from inst, and from its corresponding dataset
 //	Attribute attbk;
 //	Integer indexbk;
@@ -468,10 +1125,9 @@ public class OATES extends AbstractClassifier implements Regressor {
 			return;
 		}
 		
-		Instance instNoTimeStamp = inst.copy();
 		// NEEDS TO UPDATE THE DATASET TO CONTAIN INFORMATION ABOUT INSTANCES WITH ONE LESS ATT,
 		// AS SOME BASE LEARNERS MAY NEED TO USE INFORMATION ABOUT THE DATASET FOR TRAINING OR PREDICTIONS.
-		deleteTimeStamp(instNoTimeStamp);
+		Instance instNoTimeStamp = withoutTimeStamp(inst);
 
 		int currentSize = 0;
 		if (currentClusters != null)
@@ -483,30 +1139,38 @@ public class OATES extends AbstractClassifier implements Regressor {
 		
 		// note that the index of the cluster to which this instance belong is not necessarily the index of a newly added cluster, even
 		// if this instance resulted in the addition of a new cluster.
-		int indexCluster = indexClusterInstanceBelongsTo(currentClusters, instNoTimeStamp);
+		int indexCluster = indexClusterInstanceBelongsTo(instNoTimeStamp);
 		
 		// SOME CLUSTERERS WORK WITH WINDOWS, AND MAY HAVE BEEN TRAINED ONLY AFTER A CERTAIN NUMBER OF CC PROJECTS WERE RECEIVED.
 		// SO, AT THIS POINT HERE, THERE MAY BE NO CLUSTERS YET AND INDEXCLUSTER WILL BE -1.
 		// SO, NEEDS TO STORE SOME OF THE CC INSTANCES TO USE FOR TRAINING ONLY ONCE CLUSTERS HAVE BEEN CREATED.
 		if (indexCluster != -1) {
 			
-			if (!learners.get(indexCluster).trainingHasStarted() && timeStep != 0) // <---le18Aug2017
+			if (!learnerTrainingHasStarted(indexCluster) && timeStep != 0) // <---le18Aug2017
 				weights.set(indexCluster, 1.0/getNumTrainedLearners()); // <---le18Aug2017 Any learner that is trained for the first time gets its weight set to this value
-			else if (!learners.get(indexCluster).trainingHasStarted() && timeStep == 0) // <---le18Aug2017
+			else if (!learnerTrainingHasStarted(indexCluster) && timeStep == 0) // <---le18Aug2017
 				weights.set(indexCluster, 1.0/weights.size()); // <---le18Aug2017
 			
-			learners.get(indexCluster).trainOnInstance(instNoTimeStamp);
+			trainCCLearner(indexCluster, instNoTimeStamp);
 			
 			// Check if any instances waiting to be used for training should be used for training learners now.
 			// They have already been sent to train the clusterer, so no need to send them again.
-			for (int i=0; i< ccInstancesWaitingForWindowTraining.size(); ++i) {
-				instNoTimeStamp = ccInstancesWaitingForWindowTraining.get(i);
-				indexCluster = indexClusterInstanceBelongsTo(currentClusters, instNoTimeStamp);
-				if (indexCluster != -1) {
-					learners.get(indexCluster).trainOnInstance(instNoTimeStamp);
-					ccInstancesWaitingForWindowTraining.remove(i);
-					--i;
+			// Instances that still cannot be used are moved to the end of the queue, so that their order is kept.
+			// If the clusterer never changes a clustering it returned and the clusters are the ones the waiting instances were last
+			// checked against, they still cannot be used.
+			if (!ccInstancesWaitingForWindowTraining.isEmpty() && 
+					(!(clusterer instanceof ImmutableClusteringClusterer) || currentClusters != waitingInstancesCheckedClusters)) {
+				int numWaiting = ccInstancesWaitingForWindowTraining.size();
+				for (int i=0; i<numWaiting; ++i) {
+					instNoTimeStamp = ccInstancesWaitingForWindowTraining.get(0);
+					indexCluster = indexClusterInstanceBelongsTo(instNoTimeStamp);
+					if (indexCluster != -1) {
+						trainCCLearner(indexCluster, instNoTimeStamp);
+						ccInstancesWaitingForWindowTraining.removeFirst();
+					}
+					else ccInstancesWaitingForWindowTraining.moveFirstToLast();
 				}
+				waitingInstancesCheckedClusters = currentClusters;
 			}
 		}
 		else ccInstancesWaitingForWindowTraining.add(instNoTimeStamp);
@@ -515,35 +1179,428 @@ public class OATES extends AbstractClassifier implements Regressor {
 		//recoverDeletedAttDataset();
 	}
 	
+	// Number of instances in the CC data stream with timestamp before timestamp, according to the timestamp index.
+	// Timestamps are truncated as in trainCCModels, which gives the same result for the non-negative timestamps OATES is used with.
+	protected int countCCInstancesBefore(double timestamp) {
+		return ccTimestampIndex.countBefore((long)timestamp);
+	}
+	
+	// Make the CC data stream continue from its first instance with timestamp not before timestamp, without training on 
+	// the instances skipped. Used to resume a run from a given time. Requires the timestamp index.
+	public boolean seekCCDataStream(double timestamp) {
+		if (ccTimestampIndex == null) {
+			System.err.println("Error: seeking the CC data stream requires its timestamp index.");
+			return false;
+		}
+		
+		SeekableInstanceStream stream = (SeekableInstanceStream) ccDataStream;
+		int record = countCCInstancesBefore(timestamp);
+		long position = record < ccTimestampIndex.size() ? ccTimestampIndex.getPosition(record) : stream.getFile().length();
+		
+		ccPastInstancesQueue.clear();
+		replayedCCInstances = null;
+		stream.seek(record, position);
+		numCCInstancesRead = record;
+		return true;
+	}
+	
+	// Make the CC data stream continue after its first numInstances instances, without training on them
+	protected void skipCCInstances(long numInstances) {
+		advanceCCDataStream(numInstances);
+		numCCInstancesRead = numInstances;
+	}
+	
+	// Move the CC data stream numInstances instances forward from its current position, without training on them
+	protected void advanceCCDataStream(long numInstances) {
+		if (ccTimestampIndex != null) {
+			SeekableInstanceStream stream = (SeekableInstanceStream) ccDataStream;
+			long record = stream.getRecordNumber() + numInstances;
+			long position = record < ccTimestampIndex.size() ? ccTimestampIndex.getPosition((int) record) : stream.getFile().length();
+			stream.seek(record, position);
+		}
+		else {
+			for (long k=0; k<numInstances && ccDataStream.hasMoreInstances(); ++k)
+				ccDataStream.nextInstance();
+		}
+	}
+	
+	protected boolean hasMoreCCInstances() {
+		return replayedCCInstances != null || ccDataStream.hasMoreInstances();
+	}
+	
+	// Read the next CC instance, from the ones replayed from the write-ahead log if there are any left, or else from the CC data stream
+	protected Instance nextCCInstance() {
+		numCCInstancesRead++;
+		
+		if (replayedCCInstances != null) {
+			Instance ccInstance = replayedCCInstances.poll();
+			if (replayedCCInstances.isEmpty())
+				replayedCCInstances = null;
+			return ccInstance;
+		}
+		
+		Instance ccInstance = ccDataStream.nextInstance().getData();
+		appendToWriteAheadLog(OATESWriteAheadLog.CC, ccInstance);
+		return ccInstance;
+	}
+	
+	// Append inst to the write-ahead log, if writeAheadLogOption is set
+	protected void appendToWriteAheadLog(byte type, Instance inst) {
+		if (writeAheadLogOption.getFile() == null)
+			return;
+		
+		try {
+			openWriteAheadLog();
+			writeAheadLog.append(type, inst);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to append to the OATES write-ahead log.", e);
+		}
+	}
+	
+	// Open the write-ahead log, if not open yet. Fails if it has records that have not been replayed.
+	protected void openWriteAheadLog() throws IOException {
+		if (writeAheadLog != null)
+			return;
+		
+		OATESWriteAheadLog log = new OATESWriteAheadLog(writeAheadLogOption.getFile(), writeAheadLogCommitSizeOption.getValue());
+		log.create(writeAheadLogGeneration);
+		writeAheadLog = log;
+	}
+	
+	// Force the instances appended to the write-ahead log to disk, e.g., before stopping
+	public void commitWriteAheadLog() throws IOException {
+		if (writeAheadLog != null)
+			writeAheadLog.commit();
+	}
+	
+	protected void closeWriteAheadLog() {
+		if (writeAheadLog == null)
+			return;
+		
+		try {
+			writeAheadLog.close();
+		} catch (IOException e) {
+			System.err.println("Error: Unable to close the OATES write-ahead log.");
+			e.printStackTrace();
+		}
+		writeAheadLog = null;
+	}
+	
+	// Recover OATES after a crash: restore the checkpoint, if it exists, and replay the write-ahead log on top of it.
+	// OATES must have the same options as when the checkpoint and the log were written. Also needed after a normal stop, unless
+	// a checkpoint was written last, as OATES refuses to append to a log with records that have not been replayed.
+	public void recover(File checkpointFile) throws IOException {
+		if (checkpointFile != null && checkpointFile.exists())
+			restoreCheckpoint(checkpointFile);
+		else resetLearning();
+		
+		replayWriteAheadLog();
+	}
+	
+	// Train on the WC instances in the write-ahead log, using the CC instances in the log instead of reading them from the CC data stream 
+	// again, and keep appending to the log afterwards. Returns the number of WC instances replayed.
+	// Predictions are not logged, so CC instances that were read only to give predictions are used by the next WC training step instead.
+	// A log older than the last restored checkpoint is not replayed, as the checkpoint already contains its records.
+	public int replayWriteAheadLog() throws IOException {
+		File file = writeAheadLogOption.getFile();
+		if (file == null)
+			throw new IOException("No write-ahead log to replay.");
+		
+		closeWriteAheadLog();
+		OATESWriteAheadLog log = new OATESWriteAheadLog(file, writeAheadLogCommitSizeOption.getValue());
+		ArrayList<OATESWriteAheadLog.Record> records = log.openAndRead(ccDataStream.getHeader(), writeAheadLogGeneration);
+		
+		ArrayDeque<Instance> ccInstances = new ArrayDeque<Instance>();
+		for (OATESWriteAheadLog.Record record : records)
+			if (record.type == OATESWriteAheadLog.CC)
+				ccInstances.add(record.instance);
+		
+		// These CC instances were read from the CC data stream after the checkpoint
+		advanceCCDataStream(ccInstances.size());
+		replayedCCInstances = ccInstances.isEmpty() ? null : ccInstances;
+		
+		int numWCInstances = 0;
+		isReplayingLog = true;
+		try {
+			for (OATESWriteAheadLog.Record record : records) {
+				if (record.type == OATESWriteAheadLog.WC) {
+					trainOnInstance(record.instance);
+					numWCInstances++;
+				}
+			}
+		} finally {
+			isReplayingLog = false;
+		}
+		
+		writeAheadLog = log;
+		return numWCInstances;
+	}
+	
+	// Used when restoring a checkpoint
+	protected void setTrainingWeightSeenByModel(double trainingWeightSeenByModel) {
+		this.trainingWeightSeenByModel = trainingWeightSeenByModel;
+	}
+	
+	// Write the whole state of OATES to a checkpoint file. See OATESCheckpoint for the format.
+	// The checkpoint is written to a temporary file, which replaces the previous checkpoint once it is on disk, so a crash leaves one of them.
+	// The checkpoint starts a new generation of the write-ahead log, which is then reset, as the checkpoint contains the instances
+	// logged so far. If the process crashes before the log is reset, recover skips its records, as they are of the previous generation.
+	public void writeCheckpoint(File file) throws IOException {
+		// Records not replayed yet must not be taken as part of the checkpoint
+		if (writeAheadLogOption.getFile() != null)
+			openWriteAheadLog();
+		
+		File tempFile = new File(file.getPath() + ".tmp");
+		writeAheadLogGeneration++;
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tempFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			try {
+				OATESCheckpoint.write(this, out);
+				out.flush();
+				fileOut.getFD().sync();
+			} finally {
+				out.close();
+			}
+			OATESWriteAheadLog.replaceFile(tempFile, file);
+		} catch (IOException e) {
+			// The log keeps its generation, so it is still replayed on the previous checkpoint
+			writeAheadLogGeneration--;
+			throw e;
+		}
+		
+		if (writeAheadLog != null) {
+			// Replayed CC instances not used yet will be read again from the CC data stream after restoring the checkpoint
+			ArrayList<Instance> ccInstances = new ArrayList<Instance>();
+			if (replayedCCInstances != null)
+				ccInstances.addAll(replayedCCInstances);
+			writeAheadLog.reset(writeAheadLogGeneration, ccInstances);
+		}
+	}
+	
+	// Replace the state of OATES by the one stored in a checkpoint file, so that training and predictions continue
+	// from where they were when the checkpoint was written. OATES must have the same options as when the checkpoint was written.
+	public void restoreCheckpoint(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			OATESCheckpoint.read(this, in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	// Train CC learner i on inst, or assign inst to it if CC learners are being trained in parallel
+	protected void trainCCLearner(int i, Instance inst) {
+		Classifier learner = learners.get(i);
+		
+		if (pendingCCTraining == null) {
+			learner.trainOnInstance(inst);
+			return;
+		}
+		
+		ArrayList<Instance> pending = pendingCCTraining.get(learner);
+		if (pending == null) {
+			pending = new ArrayList<Instance>();
+			pendingCCTraining.put(learner, pending);
+		}
+		pending.add(inst);
+		
+		// Same condition as AbstractClassifier.trainOnInstance uses to decide whether inst is used for training
+		if (inst.weight() > 0.0 && (!inst.classIsMissing() || baseLearner instanceof SemiSupervisedLearner))
+			pendingCCTrainingStarts.put(learner, Boolean.TRUE);
+	}
+	
+	// Train each CC learner on the instances assigned to it, using one task per learner
+	protected void trainPendingCCLearners() {
+		
+		if (ccTrainingPool == null)
+			ccTrainingPool = new ForkJoinPool(ccTrainingThreadsOption.getValue());
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (Map.Entry<Classifier, ArrayList<Instance>> entry : pendingCCTraining.entrySet()) {
+			final Classifier learner = entry.getKey();
+			final ArrayList<Instance> pending = entry.getValue();
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int j=0; j<pending.size(); ++j)
+						learner.trainOnInstance(pending.get(j));
+					return null;
+				}
+			});
+		}
+		
+		invokeAllTasks(ccTrainingPool, tasks, "training CC learners");
+	}
+	
+	// Run all tasks on pool and wait for them to finish
+	protected static void invokeAllTasks(ForkJoinPool pool, List<Callable<Void>> tasks, String activity) {
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while " + activity + ".", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error while " + activity + ".", e.getCause());
+		}
+	}
+	
+	protected ForkJoinPool getEvaluationPool() {
+		if (evaluationPool == null)
+			evaluationPool = new ForkJoinPool(evaluationThreadsOption.getValue());
+		return evaluationPool;
+	}
+	
+	// Learner i gives its predictions through its mapping function if it is a CC learner, or directly if it is the WC learner
+	protected Classifier getPredictor(int i) {
+		if (i < learners.size()-1)
+			return mappingFunctions.get(i);
+		return learners.get(i);
+	}
+	
+	// Prediction of each predictor whose learner is trained for inst (0 for the others).
+	// With more than one evaluation thread, the predictors are evaluated in parallel.
+	protected double[] getMemberVotes(final Classifier []predictors, boolean []trained, final Instance inst) {
+		final double []memberVotes = new double[predictors.length];
+		
+		if (evaluationThreadsOption.getValue() == 1) {
+			for (int i=0; i<predictors.length; ++i) 
+				if (trained[i])
+					memberVotes[i] = predictors[i].getVotesForInstance(inst)[0];
+			return memberVotes;
+		}
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i=0; i<predictors.length; ++i) {
+			if (!trained[i])
+				continue;
+			final int member = i;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					memberVotes[member] = predictors[member].getVotesForInstance(inst)[0];
+					return null;
+				}
+			});
+		}
+		invokeAllTasks(getEvaluationPool(), tasks, "obtaining predictions of the learners");
+		
+		return memberVotes;
+	}
+	
+	// queueVotes[i][j] is the prediction of learner i (through its mapping function, in the case of CC learners) for the 
+	// WC instance at index j of wcPastInstancesQueue. Each learner is evaluated in parallel. Untrained learners get no predictions.
+	protected double[][] getQueueVotes() {
+		int numQueued = wcPastInstancesQueue.size();
+		Instance []queued = new Instance[numQueued];
+		for (int j=0; j<numQueued; ++j)
+			queued[j] = wcPastInstancesQueue.get(j);
+		
+		Classifier []predictors = new Classifier[learners.size()];
+		boolean []trained = new boolean[learners.size()];
+		for (int i=0; i<learners.size(); ++i) {
+			predictors[i] = getPredictor(i);
+			trained[i] = learners.get(i).trainingHasStarted();
+		}
+		return getMemberVotes(predictors, trained, queued);
+	}
+	
+	// memberVotes[i][j] is the prediction of predictor i for insts[j], if its learner is trained (null for the others).
+	// Each predictor is evaluated on all instances before moving to the next one, and with more than one evaluation thread,
+	// the predictors are evaluated in parallel.
+	protected double[][] getMemberVotes(final Classifier []predictors, boolean []trained, final Instance []insts) {
+		final double [][]memberVotes = new double[predictors.length][];
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i=0; i<predictors.length; ++i) {
+			if (!trained[i])
+				continue;
+			final int member = i;
+			Callable<Void> task = new Callable<Void>() {
+				@Override
+				public Void call() {
+					double []votes = new double[insts.length];
+					for (int j=0; j<insts.length; ++j)
+						votes[j] = predictors[member].getVotesForInstance(insts[j])[0];
+					memberVotes[member] = votes;
+					return null;
+				}
+			};
+			
+			if (evaluationThreadsOption.getValue() == 1) {
+				try {
+					task.call();
+				} catch (Exception e) {
+					throw new RuntimeException("Error while obtaining predictions of the learners.", e);
+				}
+			}
+			else tasks.add(task);
+		}
+		if (!tasks.isEmpty())
+			invokeAllTasks(getEvaluationPool(), tasks, "obtaining predictions of the learners");
+		
+		return memberVotes;
+	}
+	
 	// Train the CC models with their corresponding instances until the timestamp of inst.
+	// With more than one CC training thread, CC instances are first assigned to CC learners and the learners are trained afterwards.
 	protected void trainCCModels(Instance inst) {
-		Instant timestampWCInstance = new Instant((long)inst.value(inst.numAttributes()-1)*1000);
-		Instant timestampCCInstance = null;
+		
+		if (ccTrainingThreadsOption.getValue() == 1) {
+			assignAndTrainCCModels(inst);
+			return;
+		}
+		
+		pendingCCTraining = new IdentityHashMap<Classifier, ArrayList<Instance>>();
+		pendingCCTrainingStarts = new IdentityHashMap<Classifier, Boolean>();
+		try {
+			assignAndTrainCCModels(inst);
+			if (!pendingCCTraining.isEmpty())
+				trainPendingCCLearners();
+		} finally {
+			pendingCCTraining = null;
+			pendingCCTrainingStarts = null;
+		}
+	}
+	
+	protected void assignAndTrainCCModels(Instance inst) {
+		// Timestamps are compared as whole numbers, truncating any fraction
+		long timestampWCInstance = (long)inst.value(inst.numAttributes()-1);
+		long timestampCCInstance;
 
 		// If we have previously stored past CC instances, we need to use them for training, if their time stamps are before that of inst
 		while (ccPastInstancesQueue.size() != 0) {
-			Instance ccInstance = ccPastInstancesQueue.get(0);
-			timestampCCInstance = new Instant((long)ccInstance.value(inst.numAttributes()-1)*1000); 
+			timestampCCInstance = (long)ccPastInstancesQueue.value(0, inst.numAttributes()-1); 
 
 			// Train on CC instance only if its timestamp is before that of inst
-			if (timestampCCInstance.isBefore(timestampWCInstance)) {
-				trainOnCCInstance(ccInstance);
-				ccPastInstancesQueue.remove(0); // remove that instance, as we won't need to use it for training anymore
+			if (timestampCCInstance < timestampWCInstance) {
+				trainOnCCInstance(ccPastInstancesQueue.get(0));
+				ccPastInstancesQueue.removeFirst(); // remove that instance, as we won't need to use it for training anymore
 			}
 			else break;
 		}
 		
 
+		// The timestamp index tells how many of the next CC instances are before inst, so their timestamps need not be compared.
+		// They are still trained on one at a time, as each of them may change the clusters used for the next one.
+		// Not used while CC instances replayed from the write-ahead log are left, as the CC data stream is ahead of them
+		if (ccPastInstancesQueue.size() == 0 && ccTimestampIndex != null && replayedCCInstances == null) {
+			long numBefore = countCCInstancesBefore(inst.value(inst.numAttributes()-1)) - ((SeekableInstanceStream) ccDataStream).getRecordNumber();
+			for (long k=0; k<numBefore && ccDataStream.hasMoreInstances(); ++k)
+				trainOnCCInstance(nextCCInstance());
+		}
+
 		// if we have used the bk instances and there are still more instances in the CC data stream, check if we can use them for training
-		if (ccPastInstancesQueue.size() == 0 && ccDataStream.hasMoreInstances()) {
+		if (ccPastInstancesQueue.size() == 0 && hasMoreCCInstances()) {
 
-			while (ccDataStream.hasMoreInstances()) {
+			while (hasMoreCCInstances()) {
 
-				Instance ccInstance = ccDataStream.nextInstance().instance;
-				timestampCCInstance = new Instant((long)ccInstance.value(inst.numAttributes()-1)*1000);
+				Instance ccInstance = nextCCInstance();
+				timestampCCInstance = (long)ccInstance.value(inst.numAttributes()-1);
 
 				// Train on CC instance only if its timestamp is before that of inst
-				if (timestampCCInstance.isBefore(timestampWCInstance)) {
+				if (timestampCCInstance < timestampWCInstance) {
 					trainOnCCInstance(ccInstance);
 				}
 				else {
@@ -556,9 +1613,60 @@ public class OATES extends AbstractClassifier implements Regressor {
 
 	}
 	
+	// Publish the current members and weights, to be used by getVotesForInstance when publishedStatePredictionsOption is set
+	protected void publishSnapshot() {
+		int numLearners = learners.size();
+		Classifier []predictors = new Classifier[numLearners];
+		boolean []trained = new boolean[numLearners];
+		double []snapshotWeights = new double[numLearners];
+		
+		for (int i=0; i<numLearners; ++i) {
+			predictors[i] = getPredictor(i);
+			trained[i] = learners.get(i).trainingHasStarted();
+			snapshotWeights[i] = weights.get(i);
+		}
+		
+		publishedSnapshot = new EnsembleSnapshot(predictors, trained, snapshotWeights, datasetNoTimeStamp, getHeaderNoTimeStamp());
+	}
+	
+	// Prediction using only the published snapshot. Does not change OATES or its CC data stream.
+	protected double[] getVotesFromSnapshot(Instance inst) {
+		
+		double []votes = new double[1]; // this is a regression problem
+		
+		if (inst.classAttribute().isNominal()) {
+			System.err.println("This is a classification problem. OATES can only be used for regression problems.");
+			return votes;
+		}
+		
+		EnsembleSnapshot snapshot = publishedSnapshot;
+		if (snapshot == null) // no WC training done yet
+			return votes;
+		
+		Instance instNoTimeStamp;
+		if (timestampFreeViewsOption.isSet())
+			instNoTimeStamp = new TimestampFreeInstance(inst, snapshot.headerNoTimeStamp);
+		else {
+			instNoTimeStamp = inst.copy();
+			instNoTimeStamp.deleteAttributeAt(instNoTimeStamp.numAttributes()-1);
+			instNoTimeStamp.setDataset(snapshot.datasetNoTimeStamp);
+		}
+		
+		double []memberVotes = getMemberVotes(snapshot.predictors, snapshot.trained, instNoTimeStamp);
+		for (int i=0; i<snapshot.predictors.length; ++i) {
+			if (snapshot.trained[i])
+				votes[0] += memberVotes[i] * snapshot.weights[i];
+		}
+		
+		return votes;
+	}
+	
 	@Override
 	public double[] getVotesForInstance(Instance inst) {
 		
+		if (publishedStatePredictionsOption.isSet())
+			return getVotesFromSnapshot(inst);
+		
 		if (!makeChecks(inst)) {
 			System.err.println("Halting get votes.");
 			return new double[inst.numClasses()];
@@ -573,22 +1681,90 @@ public class OATES extends AbstractClassifier implements Regressor {
 				
 		double []votes = new double[1]; // this is a regression problem
 		
-		Instance instNoTimeStamp = inst.copy();
-		deleteTimeStamp(instNoTimeStamp);
+		Instance instNoTimeStamp = withoutTimeStamp(inst);
 		
-		// Get predictions of the CC mapped models
-		for (int i=0; i<learners.size()-1; ++i) {
-			if (learners.get(i).trainingHasStarted())
-				votes[0] += mappingFunctions.get(i).getVotesForInstance(instNoTimeStamp)[0] * weights.get(i);
+		// Get predictions of the CC mapped models and of the WC model
+		Classifier []predictors = new Classifier[learners.size()];
+		boolean []trained = new boolean[learners.size()];
+		for (int i=0; i<learners.size(); ++i) {
+			predictors[i] = getPredictor(i);
+			trained[i] = learners.get(i).trainingHasStarted();
 		}
+		double []memberVotes = getMemberVotes(predictors, trained, instNoTimeStamp);
 		
-		// Get prediction on the WC model
-		if (learners.get(learners.size()-1).trainingHasStarted())
-			votes[0] += learners.get(learners.size()-1).getVotesForInstance(instNoTimeStamp)[0] * weights.get(learners.size()-1);
+		for (int i=0; i<learners.size(); ++i) {
+			if (trained[i])
+				votes[0] += memberVotes[i] * weights.get(i);
+		}
 		
 		return votes; 
 	
 	}
+	
+	// Predictions for all instances of batch, e.g., to score many projects against the same state of OATES.
+	// The CC data stream is caught up only once, up to the latest timestamp in the batch, and mapping functions and weights are
+	// updated once. Each learner is then evaluated on the whole batch. The result is the same as calling getVotesForInstance 
+	// on each instance of the batch after calling it on the instance with the latest timestamp.
+	public double[] getVotesForInstances(Instances batch) {
+		
+		int numInstances = batch.numInstances();
+		double []votes = new double[numInstances];
+		if (numInstances == 0)
+			return votes;
+		
+		if (publishedStatePredictionsOption.isSet()) {
+			for (int j=0; j<numInstances; ++j)
+				votes[j] = getVotesFromSnapshot(batch.instance(j))[0];
+			return votes;
+		}
+		
+		// Instance with the latest timestamp, compared in the same way as in trainCCModels
+		Instance latest = batch.instance(0);
+		int timeStampIndex = latest.numAttributes()-1;
+		for (int j=1; j<numInstances; ++j) {
+			if ((long)batch.instance(j).value(timeStampIndex) > (long)latest.value(timeStampIndex))
+				latest = batch.instance(j);
+		}
+		
+		if (!makeChecks(latest)) {
+			System.err.println("Halting get votes.");
+			return votes;
+		}
+		
+		if (wcPastInstancesQueueSize.getValue() != 1|| timeStep == 0) { // as in getVotesForInstance
+			trainCCModels(latest);
+			trainMappingFunctions();
+			updateWeights();
+		}
+		
+		// Instances without timestamp, all sharing the same header
+		InstancesHeader headerNoTimeStamp = new InstancesHeader(datasetNoTimeStamp);
+		Instance []instsNoTimeStamp = new Instance[numInstances];
+		for (int j=0; j<numInstances; ++j) {
+			Instance inst = batch.instance(j);
+			double []values = new double[timeStampIndex];
+			for (int a=0; a<timeStampIndex; ++a)
+				values[a] = inst.value(a);
+			instsNoTimeStamp[j] = new InstanceRingBuffer.BufferedInstance(inst.weight(), values, headerNoTimeStamp);
+		}
+		
+		Classifier []predictors = new Classifier[learners.size()];
+		boolean []trained = new boolean[learners.size()];
+		for (int i=0; i<learners.size(); ++i) {
+			predictors[i] = getPredictor(i);
+			trained[i] = learners.get(i).trainingHasStarted();
+		}
+		double [][]memberVotes = getMemberVotes(predictors, trained, instsNoTimeStamp);
+		
+		for (int j=0; j<numInstances; ++j) {
+			for (int i=0; i<learners.size(); ++i) {
+				if (trained[i])
+					votes[j] += memberVotes[i][j] * weights.get(i);
+			}
+		}
+		
+		return votes;
+	}
 
 
 
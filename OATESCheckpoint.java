@@ -0,0 +1,186 @@
+/**
+ * Writes and reads checkpoints of the whole state of OATES, used by OATES.writeCheckpoint and OATES.restoreCheckpoint.
+ *
+ * The checkpoint is written as a sequence of records rather than as a single serialised object graph.
+ * Models (learners, mapping functions, clusterer) are written one by one as length-prefixed serialised blobs.
+ * Mapping functions are written without their CC learner, which is linked again when reading.
+ * Instance queues are written as primitive values, and the CC data stream as the number of instances already read from it.
+ * Predictions cached by OATES are not written, as they are recomputed when needed.
+ *
+ * Format (big endian):
+ *  int     MAGIC
+ *  int     VERSION
+ *  UTF     command line options of OATES
+ *  long    generation of the write-ahead log holding the instances ingested after the checkpoint
+ *  int     timeStep
+ *  double  training weight seen by OATES
+ *  boolean whether the CC class index is set
+ *  boolean whether the dataset without timestamp exists, followed by its blob if so
+ *  blob    clusterer
+ *  int     number of learners n, followed by, for each learner i:
+ *           blob learner, double weight, and, for CC learners (i < n-1),
+ *           blob mapping function and longs ccLearnerVersion, firstWCInstance, endWCInstance, version of its training state
+ *  queue   wcPastInstancesQueue, ccPastInstancesQueue and ccInstancesWaitingForWindowTraining, as written by InstanceRingBuffer.write
+ *  long    number of instances read from the CC data stream
+ *
+ * A blob is an int with the number of bytes followed by the bytes of the serialised object.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+import moa.clusterers.Clusterer;
+
+public class OATESCheckpoint {
+
+	public static final int MAGIC = 0x4F41434B;
+	public static final int VERSION = 2;
+
+	public static void write(OATES oates, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(oates.getOptions().getAsCLIString());
+		out.writeLong(oates.writeAheadLogGeneration);
+
+		out.writeInt(oates.timeStep);
+		out.writeDouble(oates.trainingWeightSeenByModel());
+		out.writeBoolean(oates.isCCClassIndexSet);
+		out.writeBoolean(oates.datasetNoTimeStamp != null);
+		if (oates.datasetNoTimeStamp != null)
+			writeBlob(out, oates.datasetNoTimeStamp);
+
+		writeBlob(out, oates.clusterer);
+
+		int numLearners = oates.learners.size();
+		out.writeInt(numLearners);
+		for (int i=0; i<numLearners; ++i) {
+			writeBlob(out, oates.learners.get(i));
+			out.writeDouble(oates.weights.get(i));
+
+			if (i < numLearners-1) {
+				// The CC learner has already been written above
+				MappingFunction mappingFunction = (MappingFunction) oates.mappingFunctions.get(i);
+				Classifier ccLearner = mappingFunction.getCCLearner();
+				mappingFunction.setCCLearner(null);
+				try {
+					writeBlob(out, mappingFunction);
+				} finally {
+					mappingFunction.setCCLearner(ccLearner);
+				}
+
+				OATES.MappingFunctionTrainingState state = oates.mappingFunctionsTrainingState.get(i);
+				out.writeLong(state.ccLearnerVersion);
+				out.writeLong(state.firstWCInstance);
+				out.writeLong(state.endWCInstance);
+				out.writeLong(state.version);
+			}
+		}
+
+		oates.wcPastInstancesQueue.write(out);
+		oates.ccPastInstancesQueue.write(out);
+		oates.ccInstancesWaitingForWindowTraining.write(out);
+
+		out.writeLong(oates.numCCInstancesRead);
+	}
+
+	public static void read(OATES oates, DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not an OATES checkpoint.");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported OATES checkpoint version " + version + ".");
+
+		String options = in.readUTF();
+		if (!options.equals(oates.getOptions().getAsCLIString()))
+			System.err.println("Warning: restoring OATES checkpoint written with different options: " + options);
+
+		long writeAheadLogGeneration = in.readLong();
+
+		// Start from a fresh OATES, which also opens the CC data stream from its beginning
+		oates.resetLearning();
+		oates.writeAheadLogGeneration = writeAheadLogGeneration;
+
+		oates.timeStep = in.readInt();
+		double trainingWeightSeenByModel = in.readDouble();
+		oates.isCCClassIndexSet = in.readBoolean();
+		oates.datasetNoTimeStamp = in.readBoolean() ? (Instances) readBlob(in) : null;
+
+		oates.clusterer = (Clusterer) readBlob(in);
+		oates.currentClusters = oates.clusterer.getClusteringResult();
+
+		int numLearners = in.readInt();
+		oates.learners = new ArrayList<Classifier>();
+		oates.weights = new ArrayList<Double>();
+		oates.mappingFunctions = new ArrayList<Classifier>();
+		oates.mappingFunctionsTrainingState = new ArrayList<OATES.MappingFunctionTrainingState>();
+		for (int i=0; i<numLearners; ++i) {
+			Classifier learner = (Classifier) readBlob(in);
+			oates.learners.add(learner);
+			oates.weights.add(in.readDouble());
+
+			if (i < numLearners-1) {
+				Classifier mappingFunction = (Classifier) readBlob(in);
+				((MappingFunction) mappingFunction).setCCLearner(learner);
+				oates.mappingFunctions.add(mappingFunction);
+
+				OATES.MappingFunctionTrainingState state = new OATES.MappingFunctionTrainingState();
+				state.ccLearnerVersion = in.readLong();
+				state.firstWCInstance = in.readLong();
+				state.endWCInstance = in.readLong();
+				state.version = in.readLong();
+				oates.mappingFunctionsTrainingState.add(state);
+			}
+		}
+
+		InstancesHeader headerNoTimeStamp = oates.datasetNoTimeStamp != null ? new InstancesHeader(oates.datasetNoTimeStamp) : null;
+		oates.wcPastInstancesQueue.read(in, headerNoTimeStamp);
+		oates.ccPastInstancesQueue.read(in, oates.ccDataStream.getHeader());
+		oates.ccInstancesWaitingForWindowTraining.read(in, headerNoTimeStamp);
+
+		oates.skipCCInstances(in.readLong());
+
+		// Set after resetting, which clears it
+		oates.setTrainingWeightSeenByModel(trainingWeightSeenByModel);
+
+		if (oates.publishedStatePredictionsOption.isSet() && oates.datasetNoTimeStamp != null)
+			oates.publishSnapshot();
+	}
+
+	protected static void writeBlob(DataOutputStream out, Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		objectOut.writeObject(object);
+		objectOut.close();
+
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	protected static Object readBlob(DataInputStream in) throws IOException {
+		byte []bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+
+		ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to read object from OATES checkpoint.", e);
+		} finally {
+			objectIn.close();
+		}
+	}
+
+}
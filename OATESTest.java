@@ -7,8 +7,11 @@
 
 package moa.classifiers.meta;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,7 +25,10 @@ import com.yahoo.labs.samoa.instances.Instances;
 import junit.framework.TestCase;
 import junitx.util.PrivateAccessor;
 import moa.cluster.Clustering;
+import moa.clusterers.AbstractClusterer;
 import moa.clusterers.streamkm.StreamKM;
+import moa.clusterers.threshold.ProductivitySplitClusterer;
+import moa.core.Measurement;
 import moa.streams.ArffFileStream;
 
 public class OATESTest extends TestCase {
@@ -169,6 +175,92 @@ public class OATESTest extends TestCase {
 		assertEquals(2,oates.indexClusterInstanceBelongsTo(clusters, ccInst));
 	}
 	
+	public void testWaitingInstancesCheckedOnlyWhenClustersChange() {
+		
+		double [] attvals = {1,2,3,4};
+		DenseInstance ccInst = new DenseInstance(1, attvals);
+		ccInst.setDataset(dataset);
+		oates.trainOnCCInstance(ccInst);
+		
+		// An instance waiting for clusters to be created, as if it had been received before there were any clusters
+		oates.ccInstancesWaitingForWindowTraining.add(ccInst, 3, oates.datasetNoTimeStamp);
+		
+		// The clusters did not change since the waiting instances were last checked, so they are not checked again
+		oates.waitingInstancesCheckedClusters = oates.currentClusters;
+		oates.trainOnCCInstance(ccInst);
+		assertEquals(1, oates.ccInstancesWaitingForWindowTraining.size());
+		
+		// Once the clusters change, the waiting instance is used for training
+		oates.waitingInstancesCheckedClusters = null;
+		oates.trainOnCCInstance(ccInst);
+		assertEquals(0, oates.ccInstancesWaitingForWindowTraining.size());
+		
+	}
+	
+	public void testWaitingInstancesCheckedEveryTimeForOtherClusterers() {
+		
+		// A clusterer that does not declare that it never changes a clustering it returned
+		oates.clusterer = new InPlaceClusterer((ProductivitySplitClusterer) oates.clusterer);
+		
+		double [] attvals = {1,2,3,4};
+		DenseInstance ccInst = new DenseInstance(1, attvals);
+		ccInst.setDataset(dataset);
+		oates.trainOnCCInstance(ccInst);
+		oates.ccInstancesWaitingForWindowTraining.add(ccInst, 3, oates.datasetNoTimeStamp);
+		
+		// Its clusters may have changed in place, so the waiting instance is checked, and used for training, although the clustering
+		// is the same object as when the waiting instances were last checked
+		oates.waitingInstancesCheckedClusters = oates.currentClusters;
+		oates.trainOnCCInstance(ccInst);
+		assertSame(oates.waitingInstancesCheckedClusters, oates.currentClusters);
+		assertEquals(0, oates.ccInstancesWaitingForWindowTraining.size());
+		
+	}
+	
+	// Clusterer giving the clusters of a ProductivitySplitClusterer, without implementing ImmutableClusteringClusterer
+	private static class InPlaceClusterer extends AbstractClusterer {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private ProductivitySplitClusterer clusterer;
+		
+		public InPlaceClusterer(ProductivitySplitClusterer clusterer) {
+			this.clusterer = clusterer;
+		}
+		
+		@Override
+		public Clustering getClusteringResult() {
+			return clusterer.getClusteringResult();
+		}
+		
+		@Override
+		public void resetLearningImpl() {
+		}
+		
+		@Override
+		public void trainOnInstanceImpl(Instance inst) {
+		}
+		
+		@Override
+		public boolean isRandomizable() {
+			return false;
+		}
+		
+		@Override
+		public double[] getVotesForInstance(Instance inst) {
+			return null;
+		}
+		
+		@Override
+		protected Measurement[] getModelMeasurementsImpl() {
+			return null;
+		}
+		
+		@Override
+		public void getModelDescription(StringBuilder out, int indent) {
+		}
+	}
+	
 	public void testTrainOnCCInstance() {
 		
 		// The first tests are with dycom rather than dycom2. This means that the trainOnCCInstance method will not result in a new cluster being created
@@ -458,6 +550,480 @@ public class OATESTest extends TestCase {
 		
 	}
 
+	// Create an OATES with the same configuration as oates. Tests set further options on it and reset it again.
+	private OATES createOATES() {
+		return createOATES("moa.classifiers.lazy.kNN -k 1");
+	}
+	
+	private OATES createOATES(String baseLearner) {
+		OATES o = new OATES();
+		o.baseLearnerOption.setValueViaCLIString(baseLearner);
+		o.mappingFunctionOption.setValueViaCLIString("moa.classifiers.meta.SimpleLinearMappingFunction -r 0.1");
+		o.clustererOption.setValueViaCLIString("moa.clusterers.threshold.ProductivitySplitClusterer -t \"1.0;2.0\" -e " + effIndex + " -s " + sizeIndex);
+		o.ccDataStreamFile.setValueViaCLIString(ccDataSetFileName);
+		o.betaWC.setValue(0.6);
+		o.betaCC.setValue(0.5);
+		o.period.setValue(1);
+		o.wcPastInstancesQueueSize.setValue(3);
+		o.prepareForUse();
+		o.resetLearning();
+		return o;
+	}
+	
+	public void testLearnersWrappedOnlyWhenVersionsNeeded() {
+		
+		// Without options relying on model versions, the learners are the base learners themselves
+		for (int i=0; i<oates.learners.size(); ++i)
+			assertFalse(oates.learners.get(i) instanceof VersionedClassifier);
+		
+		OATES oatesCached = createOATES();
+		oatesCached.cachePredictionsOption.setValue(true);
+		oatesCached.resetLearning();
+		for (int i=0; i<oatesCached.learners.size(); ++i)
+			assertTrue(oatesCached.learners.get(i) instanceof VersionedClassifier);
+		
+	}
+	
+	public void testIncrementalTrainMappingFunctions() {
+		
+		// The same configuration as oates, but refreshing mapping functions incrementally
+		OATES oatesIncremental = createOATES();
+		oatesIncremental.incrementalMappingFunctionsOption.setValue(true);
+		oatesIncremental.resetLearning();
+		
+		oates.resetLearning();
+		
+		// The mapping functions must be the same as when resetting them and replaying the whole WC queue
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesIncremental.trainOnInstanceImpl(inst.copy());
+			
+			for (int i=0; i<oates.mappingFunctions.size(); ++i) 
+				assertEquals(((SimpleLinearMappingFunction)oates.mappingFunctions.get(i)).getB(),((SimpleLinearMappingFunction)oatesIncremental.mappingFunctions.get(i)).getB());
+			for (int i=0; i<oates.weights.size(); ++i)
+				assertEquals(oates.weights.get(i),oatesIncremental.weights.get(i));
+		}
+		
+	}
+	
+	public void testCachePredictions() {
+		
+		// The same configuration as oates, but keeping the predictions for the WC queue between weight updates
+		OATES oatesCached = createOATES();
+		oatesCached.cachePredictionsOption.setValue(true);
+		oatesCached.resetLearning();
+		
+		oates.resetLearning();
+		
+		// Weights and predictions must be the same as when recomputing all predictions for the WC queue
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			assertEquals(oates.getVotesForInstance(inst.copy())[0],oatesCached.getVotesForInstance(inst.copy())[0]);
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesCached.trainOnInstanceImpl(inst.copy());
+			
+			for (int i=0; i<oates.weights.size(); ++i)
+				assertEquals(oates.weights.get(i),oatesCached.weights.get(i));
+		}
+		
+		// Once refreshed, the cached predictions of the WC learner must match its current predictions
+		oatesCached.updateWeights();
+		int wcIndex = oatesCached.learners.size()-1;
+		for (int j=0; j<oatesCached.wcPastInstancesQueue.size(); ++j) {
+			long position = oatesCached.wcPastInstancesQueue.getNumRemoved() + j;
+			assertEquals(oatesCached.learners.get(wcIndex).getVotesForInstance(oatesCached.wcPastInstancesQueue.get(j))[0],
+					oatesCached.cachedVotes[wcIndex][(int) (position % oatesCached.cachedVotesCapacity)]);
+		}
+		
+	}
+
+	public void testIncrementalWeights() {
+		
+		// The same configuration as oates, but updating weights from the number of losses of each learner
+		OATES oatesLossCounts = createOATES();
+		oatesLossCounts.incrementalWeightsOption.setValue(true);
+		oatesLossCounts.resetLearning();
+		
+		oates.resetLearning();
+		
+		// Weights must be exactly the same as when replaying the whole WC queue
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesLossCounts.trainOnInstanceImpl(inst.copy());
+			
+			for (int i=0; i<oates.weights.size(); ++i)
+				assertEquals(oates.weights.get(i),oatesLossCounts.weights.get(i));
+			
+			// Each queued WC instance is won by at most one learner
+			int totalWins = 0;
+			for (int i=0; i<oatesLossCounts.numWins.length; ++i)
+				totalWins += oatesLossCounts.numWins[i];
+			assertTrue(totalWins <= oatesLossCounts.wcPastInstancesQueue.size());
+		}
+		
+	}
+
+	public void testPublishedStatePredictions() {
+		
+		// The same configuration as oates, but predicting with the state published after each WC training step
+		OATES oatesPublished = createOATES();
+		oatesPublished.publishedStatePredictionsOption.setValue(true);
+		oatesPublished.resetLearning();
+		
+		oates.resetLearning();
+		
+		Instance firstInst = new ArffFileStream(wcDataSetFileName, effIndex).nextInstance().instance;
+		assertEquals(0.0, oatesPublished.getVotesForInstance(firstInst)[0]);
+		
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesPublished.trainOnInstanceImpl(inst.copy());
+			
+			// The prediction must be the one given by the ensemble at the end of training, without any further updates
+			Instance instNoTimeStamp = inst.copy();
+			oates.deleteTimeStamp(instNoTimeStamp);
+			double expected = 0;
+			for (int i=0; i<oates.learners.size(); ++i) {
+				if (!oates.learners.get(i).trainingHasStarted())
+					continue;
+				if (i < oates.learners.size()-1)
+					expected += oates.mappingFunctions.get(i).getVotesForInstance(instNoTimeStamp)[0] * oates.weights.get(i);
+				else expected += oates.learners.get(i).getVotesForInstance(instNoTimeStamp)[0] * oates.weights.get(i);
+			}
+			
+			int ccQueueSize = oatesPublished.ccPastInstancesQueue.size();
+			double []weightsBefore = new double[oatesPublished.weights.size()];
+			for (int i=0; i<weightsBefore.length; ++i)
+				weightsBefore[i] = oatesPublished.weights.get(i);
+			
+			assertEquals(expected, oatesPublished.getVotesForInstance(inst)[0]);
+			
+			// Predicting does not change OATES
+			assertEquals(ccQueueSize, oatesPublished.ccPastInstancesQueue.size());
+			for (int i=0; i<weightsBefore.length; ++i)
+				assertEquals(weightsBefore[i], oatesPublished.weights.get(i));
+		}
+		
+	}
+
+	public void testParallelCCTraining() {
+		
+		// The same configuration as oates, but training CC learners with several threads
+		OATES oatesParallel = createOATES();
+		oatesParallel.ccTrainingThreadsOption.setValue(4);
+		
+		oates.resetLearning();
+		
+		// Learners must be trained on the same CC instances, so weights and predictions must be the same
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			assertEquals(oates.getVotesForInstance(inst.copy())[0], oatesParallel.getVotesForInstance(inst.copy())[0]);
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesParallel.trainOnInstanceImpl(inst.copy());
+			
+			assertEquals(oates.learners.size(), oatesParallel.learners.size());
+			for (int i=0; i<oates.learners.size(); ++i) {
+				assertEquals(oates.learners.get(i).trainingWeightSeenByModel(), oatesParallel.learners.get(i).trainingWeightSeenByModel());
+				assertEquals(oates.weights.get(i), oatesParallel.weights.get(i));
+			}
+		}
+		
+		assertNull(oatesParallel.pendingCCTraining);
+		
+	}
+
+	public void testParallelEvaluation() {
+		
+		// The same configuration as oates, but obtaining the predictions of the learners with several threads,
+		// with and without cached predictions
+		OATES oatesParallel = createOATES();
+		oatesParallel.evaluationThreadsOption.setValue(4);
+		OATES oatesParallelCached = createOATES();
+		oatesParallelCached.cachePredictionsOption.setValue(true);
+		oatesParallelCached.resetLearning();
+		oatesParallelCached.evaluationThreadsOption.setValue(4);
+		
+		oates.resetLearning();
+		
+		// Predictions are combined in the same order, so they must be exactly the same
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			double expected = oates.getVotesForInstance(inst.copy())[0];
+			assertEquals(expected, oatesParallel.getVotesForInstance(inst.copy())[0]);
+			assertEquals(expected, oatesParallelCached.getVotesForInstance(inst.copy())[0]);
+			
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesParallel.trainOnInstanceImpl(inst.copy());
+			oatesParallelCached.trainOnInstanceImpl(inst.copy());
+			
+			for (int i=0; i<oates.weights.size(); ++i) {
+				assertEquals(oates.weights.get(i), oatesParallel.weights.get(i));
+				assertEquals(oates.weights.get(i), oatesParallelCached.weights.get(i));
+			}
+		}
+		
+	}
+
+	public void testCheckpoint() throws Exception {
+		
+		OATES oatesRestored = createOATES();
+		oatesRestored.incrementalMappingFunctionsOption.setValue(true);
+		oatesRestored.incrementalWeightsOption.setValue(true);
+		oatesRestored.resetLearning();
+		OATES oatesOriginal = createOATES();
+		oatesOriginal.incrementalMappingFunctionsOption.setValue(true);
+		oatesOriginal.incrementalWeightsOption.setValue(true);
+		oatesOriginal.resetLearning();
+		File checkpointFile = File.createTempFile("oates_checkpoint_test", ".bin");
+		
+		// Write a checkpoint half way through the WC data stream, and restore it into another OATES
+		int numInstances = 0;
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			
+			if (numInstances == 5) {
+				oatesOriginal.writeCheckpoint(checkpointFile);
+				oatesRestored.restoreCheckpoint(checkpointFile);
+				
+				assertEquals(oatesOriginal.timeStep, oatesRestored.timeStep);
+				assertEquals(oatesOriginal.learners.size(), oatesRestored.learners.size());
+				assertEquals(oatesOriginal.wcPastInstancesQueue.size(), oatesRestored.wcPastInstancesQueue.size());
+				assertEquals(oatesOriginal.numCCInstancesRead, oatesRestored.numCCInstancesRead);
+			}
+			
+			// From the checkpoint onwards, both must give the same predictions and weights
+			oatesOriginal.trainOnInstanceImpl(inst.copy());
+			if (numInstances >= 5) {
+				oatesRestored.trainOnInstanceImpl(inst.copy());
+				assertEquals(oatesOriginal.getVotesForInstance(inst.copy())[0], oatesRestored.getVotesForInstance(inst.copy())[0]);
+				for (int i=0; i<oatesOriginal.weights.size(); ++i)
+					assertEquals(oatesOriginal.weights.get(i), oatesRestored.weights.get(i));
+			}
+			numInstances++;
+		}
+		
+		assertEquals(oatesOriginal.trainingWeightSeenByModel(), oatesRestored.trainingWeightSeenByModel());
+		checkpointFile.delete();
+		
+	}
+
+	public void testWriteAheadLog() throws Exception {
+		
+		File logFile = File.createTempFile("oates_wal_test", ".log");
+		File checkpointFile = File.createTempFile("oates_checkpoint_test", ".bin");
+		OATES oatesOriginal = createOATES();
+		oatesOriginal.writeAheadLogOption.setValue(logFile.getPath());
+		oatesOriginal.resetLearning();
+		oatesOriginal.writeAheadLogCommitSizeOption.setValue(2);
+		
+		// Write a checkpoint, keep training and then stop logging, as if the process had crashed
+		int numInstances = 0;
+		ArrayList<Instance> remaining = new ArrayList<Instance>();
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			if (numInstances == 3)
+				oatesOriginal.writeCheckpoint(checkpointFile);
+			if (numInstances == 6) {
+				oatesOriginal.closeWriteAheadLog();
+				oatesOriginal.writeAheadLogOption.setValue("");
+			}
+			
+			if (numInstances < 6) 
+				oatesOriginal.trainOnInstance(inst.copy());
+			else remaining.add(inst);
+			numInstances++;
+		}
+		
+		// Recovering replays the instances trained on after the checkpoint
+		OATES oatesRecovered = createOATES();
+		oatesRecovered.writeAheadLogOption.setValue(logFile.getPath());
+		oatesRecovered.resetLearning();
+		oatesRecovered.recover(checkpointFile);
+		assertEquals(oatesOriginal.timeStep, oatesRecovered.timeStep);
+		assertEquals(oatesOriginal.numCCInstancesRead, oatesRecovered.numCCInstancesRead);
+		assertEquals(oatesOriginal.trainingWeightSeenByModel(), oatesRecovered.trainingWeightSeenByModel());
+		
+		for (Instance inst : remaining) {
+			oatesOriginal.trainOnInstance(inst.copy());
+			oatesRecovered.trainOnInstance(inst.copy());
+			assertEquals(oatesOriginal.getVotesForInstance(inst.copy())[0], oatesRecovered.getVotesForInstance(inst.copy())[0]);
+			for (int i=0; i<oatesOriginal.weights.size(); ++i)
+				assertEquals(oatesOriginal.weights.get(i), oatesRecovered.weights.get(i));
+		}
+		
+		oatesRecovered.closeWriteAheadLog();
+		logFile.delete();
+		checkpointFile.delete();
+		
+	}
+
+	public void testWriteAheadLogOlderThanCheckpoint() throws Exception {
+		
+		File logFile = File.createTempFile("oates_wal_test", ".log");
+		File oldLogFile = File.createTempFile("oates_wal_test", ".log");
+		File checkpointFile = File.createTempFile("oates_checkpoint_test", ".bin");
+		OATES oatesOriginal = createOATES();
+		oatesOriginal.writeAheadLogOption.setValue(logFile.getPath());
+		oatesOriginal.resetLearning();
+		
+		int numInstances = 0;
+		ArrayList<Instance> remaining = new ArrayList<Instance>();
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			if (numInstances < 4) 
+				oatesOriginal.trainOnInstance(inst.copy());
+			else remaining.add(inst);
+			numInstances++;
+		}
+		
+		// Crash after writing a checkpoint but before resetting the log, which still has the records the checkpoint contains
+		oatesOriginal.commitWriteAheadLog();
+		Files.copy(logFile.toPath(), oldLogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		oatesOriginal.writeCheckpoint(checkpointFile);
+		oatesOriginal.closeWriteAheadLog();
+		oatesOriginal.writeAheadLogOption.setValue("");
+		Files.copy(oldLogFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		// A new run must not discard the records of the log
+		OATES oatesNew = createOATES();
+		oatesNew.writeAheadLogOption.setValue(logFile.getPath());
+		oatesNew.resetLearning();
+		try {
+			oatesNew.trainOnInstance(remaining.get(0).copy());
+			fail("Training should fail while the write-ahead log has records that have not been replayed.");
+		} catch (RuntimeException e) {
+			// Expected
+		}
+		assertEquals(oldLogFile.length(), logFile.length());
+		
+		// Recovering does not replay the records again
+		OATES oatesRecovered = createOATES();
+		oatesRecovered.writeAheadLogOption.setValue(logFile.getPath());
+		oatesRecovered.resetLearning();
+		oatesRecovered.recover(checkpointFile);
+		assertEquals(OATESWriteAheadLog.FILE_HEADER_LENGTH, logFile.length());
+		assertEquals(oatesOriginal.timeStep, oatesRecovered.timeStep);
+		assertEquals(oatesOriginal.numCCInstancesRead, oatesRecovered.numCCInstancesRead);
+		assertEquals(oatesOriginal.trainingWeightSeenByModel(), oatesRecovered.trainingWeightSeenByModel());
+		
+		for (Instance inst : remaining) {
+			oatesOriginal.trainOnInstance(inst.copy());
+			oatesRecovered.trainOnInstance(inst.copy());
+			assertEquals(oatesOriginal.getVotesForInstance(inst.copy())[0], oatesRecovered.getVotesForInstance(inst.copy())[0]);
+		}
+		
+		oatesRecovered.closeWriteAheadLog();
+		logFile.delete();
+		oldLogFile.delete();
+		checkpointFile.delete();
+		
+	}
+
+	public void testGetVotesForInstances() {
+		
+		OATES oatesSingle = createOATES();
+		oates.resetLearning();
+		
+		// Train on the first half of the WC data stream and predict the second half as a batch
+		ArrayList<Instance> all = new ArrayList<Instance>();
+		while (wcDataStream.hasMoreInstances())
+			all.add(wcDataStream.nextInstance().instance);
+		
+		Instances batch = new Instances(wcDataStream.getHeader(), 0);
+		Instance latest = null;
+		for (int j=0; j<all.size(); ++j) {
+			Instance inst = all.get(j);
+			if (j < all.size()/2) {
+				oates.trainOnInstanceImpl(inst.copy());
+				oatesSingle.trainOnInstanceImpl(inst.copy());
+			}
+			else {
+				batch.add(inst.copy());
+				if (latest == null || inst.value(inst.numAttributes()-1) > latest.value(inst.numAttributes()-1))
+					latest = inst;
+			}
+		}
+		
+		double []votes = oates.getVotesForInstances(batch);
+		assertEquals(batch.numInstances(), votes.length);
+		
+		// The same as predicting each instance after catching up to the latest timestamp of the batch
+		oatesSingle.getVotesForInstance(latest.copy());
+		for (int j=0; j<batch.numInstances(); ++j)
+			assertEquals(oatesSingle.getVotesForInstance(batch.instance(j).copy())[0], votes[j]);
+		assertEquals(oatesSingle.numCCInstancesRead, oates.numCCInstancesRead);
+		
+	}
+
+	public void testTrainOnInstances() {
+		
+		OATES oatesBulk = createOATES();
+		oates.resetLearning();
+		
+		// Training on a batch must give the same state as training on its instances one by one
+		Instances batch = new Instances(wcDataStream.getHeader(), 0);
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			oates.trainOnInstance(inst.copy());
+			batch.add(inst.copy());
+		}
+		oatesBulk.trainOnInstances(batch);
+		
+		assertEquals(oates.timeStep, oatesBulk.timeStep);
+		assertEquals(oates.trainingWeightSeenByModel(), oatesBulk.trainingWeightSeenByModel());
+		assertEquals(oates.learners.size(), oatesBulk.learners.size());
+		for (int i=0; i<oates.mappingFunctions.size(); ++i) 
+			assertEquals(((SimpleLinearMappingFunction)oates.mappingFunctions.get(i)).getB(),((SimpleLinearMappingFunction)oatesBulk.mappingFunctions.get(i)).getB());
+		for (int i=0; i<oates.weights.size(); ++i)
+			assertEquals(oates.weights.get(i), oatesBulk.weights.get(i));
+		
+	}
+
+	public void testTimestampFreeViews() {
+		
+		OATES oatesViews = createOATES();
+		oatesViews.timestampFreeViewsOption.setValue(true);
+		oatesViews.resetLearning();
+		OATES oatesPublished = createOATES();
+		oatesPublished.publishedStatePredictionsOption.setValue(true);
+		oatesPublished.resetLearning();
+		OATES oatesPublishedViews = createOATES();
+		oatesPublishedViews.publishedStatePredictionsOption.setValue(true);
+		oatesPublishedViews.timestampFreeViewsOption.setValue(true);
+		oatesPublishedViews.resetLearning();
+		oates.resetLearning();
+		
+		// Views of the instances without timestamp must give the same results as copies without timestamp
+		while (wcDataStream.hasMoreInstances()) {
+			Instance inst = wcDataStream.nextInstance().instance;
+			assertEquals(oates.getVotesForInstance(inst.copy())[0], oatesViews.getVotesForInstance(inst.copy())[0]);
+			assertEquals(oatesPublished.getVotesForInstance(inst.copy())[0], oatesPublishedViews.getVotesForInstance(inst.copy())[0]);
+			oates.trainOnInstanceImpl(inst.copy());
+			oatesViews.trainOnInstanceImpl(inst.copy());
+			oatesPublished.trainOnInstanceImpl(inst.copy());
+			oatesPublishedViews.trainOnInstanceImpl(inst.copy());
+			for (int i=0; i<oates.weights.size(); ++i)
+				assertEquals(oates.weights.get(i), oatesViews.weights.get(i));
+		}
+		
+		// The view hides the timestamp and shares the values of the instance
+		wcDataStream.restart();
+		Instance inst = wcDataStream.nextInstance().instance;
+		Instance view = oatesViews.withoutTimeStamp(inst);
+		assertEquals(inst.numAttributes()-1, view.numAttributes());
+		assertEquals(inst.value(0), view.value(0));
+		assertEquals(inst.numAttributes()-1, view.toDoubleArray().length);
+		view.setValue(0, 123.0);
+		assertEquals(123.0, inst.value(0));
+		Instance copy = view.copy();
+		copy.setValue(0, 456.0);
+		assertEquals(123.0, inst.value(0));
+		
+	}
+
 	public void testTrainOnInstanceImpl() {
 		oates.resetLearning();
 		assertEquals(4,oates.learners.size());
@@ -649,5 +1215,27 @@ public class OATESTest extends TestCase {
 		assertEquals(1.0, oatesNoCC.weights.get(3));
 		
 	}
+	
+	public void testWekaConversionCachedAcrossPasses() {
+		
+		OATES oatesWeka = createOATES("moa.classifiers.meta.WEKAClassifierTrainSlidingWindow -l (weka.classifiers.lazy.IBk -K 1) -c");
+		for (int i=0; i<3; ++i)
+			oatesWeka.trainOnInstanceImpl(wcDataStream.nextInstance().instance.copy());
+		
+		// The learners converted the last WC instance queued, and the queue keeps its WEKA form
+		long position = oatesWeka.wcPastInstancesQueue.getNumAdded()-1;
+		Instance queued = oatesWeka.wcPastInstancesQueue.get((int)(position - oatesWeka.wcPastInstancesQueue.getNumRemoved()));
+		WEKAInstanceCache.QueuedForms forms = (WEKAInstanceCache.QueuedForms) InstanceRingBuffer.getCachedForm(queued);
+		assertNotNull(forms);
+		weka.core.Instance converted = forms.wekaForm;
+		assertNotNull(converted);
+		
+		// The next pass over the queue finds the same WEKA form, whichever Instance object the queue gives for it
+		oatesWeka.trainOnInstanceImpl(wcDataStream.nextInstance().instance.copy());
+		queued = oatesWeka.wcPastInstancesQueue.get((int)(position - oatesWeka.wcPastInstancesQueue.getNumRemoved()));
+		assertSame(converted, ((WEKAInstanceCache.QueuedForms) InstanceRingBuffer.getCachedForm(queued)).wekaForm);
+		assertSame(converted, WEKAInstanceCache.SHARED.wekaInstance(queued));
+		
+	}
 		
 }
@@ -0,0 +1,375 @@
+/**
+ * Write-ahead log of the instances ingested by OATES, used to recover OATES after a crash without reprocessing the whole input.
+ *
+ * OATES appends every WC instance it trains on and every CC instance it reads from the CC data stream. Records are written to
+ * the file as they are appended, but the file is only forced to disk once every groupCommitSize records (group commit) and
+ * when commit is called, so at most the records appended since the last commit can be lost in a crash.
+ *
+ * The log only needs to cover the instances ingested since the last checkpoint, so OATES resets it whenever it writes a checkpoint.
+ * Each reset starts a new generation of the log, whose number is also stored in the checkpoint. A log whose generation is older than
+ * that of the checkpoint only has records the checkpoint already contains, e.g., because the process crashed after writing the
+ * checkpoint but before resetting the log, so its records are not replayed. The log is reset by writing the new log to a temporary
+ * file and renaming it over the old one, so a crash leaves either of them, never a mix.
+ *
+ * A log with records is never discarded when it is opened for a new run, as they would be lost: it must be replayed first.
+ * A record that was only partly written when the process crashed is recognised by its checksum, and is discarded together with
+ * anything after it when the log is opened again.
+ *
+ * Format (big endian):
+ *  int     MAGIC
+ *  int     VERSION
+ *  long    generation
+ *  records, each made of:
+ *   byte    type: HEADER, WC or CC
+ *   int     length of the payload in bytes
+ *   byte[]  payload
+ *   int     CRC32 of the type, length and payload
+ *
+ * The payload of a HEADER record is the serialised header of the WC instances after it. It is written before the first WC record.
+ * The payload of a WC or CC record is the weight of the instance, its number of attributes and its attribute values, as doubles.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+public class OATESWriteAheadLog {
+
+	public static final int MAGIC = 0x4F41574C;
+	public static final int VERSION = 2;
+
+	public static final byte HEADER = 0;
+	public static final byte WC = 1;
+	public static final byte CC = 2;
+
+	// Length of MAGIC, VERSION and the generation
+	protected static final long FILE_HEADER_LENGTH = 16;
+
+	protected File file;
+	protected int groupCommitSize;
+
+	// Generation of the log, as written in its file header
+	protected long generation;
+
+	protected FileOutputStream fileOut;
+	protected DataOutputStream out;
+
+	// Whether the header of the WC instances has been written since the log was opened or reset
+	protected boolean isWCHeaderWritten;
+
+	// Number of records appended since the last commit
+	protected int numUncommittedRecords;
+
+	// Used to build each record before writing it
+	protected ByteArrayOutputStream recordBytes;
+	protected DataOutputStream recordOut;
+	protected CRC32 crc;
+
+	// A WC or CC instance read from the log
+	public static class Record {
+
+		public final byte type;
+		public final Instance instance;
+
+		protected Record(byte type, Instance instance) {
+			this.type = type;
+			this.instance = instance;
+		}
+	}
+
+	public OATESWriteAheadLog(File file, int groupCommitSize) {
+		this.file = file;
+		this.groupCommitSize = groupCommitSize;
+		this.recordBytes = new ByteArrayOutputStream();
+		this.recordOut = new DataOutputStream(recordBytes);
+		this.crc = new CRC32();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	// Open an empty log of the given generation for appending. Fails if the log has records of this generation or a later one,
+	// which have not been replayed. Records of earlier generations are already in a checkpoint, so they are discarded.
+	public void create(long generation) throws IOException {
+		if (file.length() > FILE_HEADER_LENGTH && readGeneration() >= generation)
+			throw new IOException("Write-ahead log " + file + " has records that have not been replayed. Recover OATES before training it.");
+
+		reset(generation, new ArrayList<Instance>());
+	}
+
+	// Open the log of the given generation for appending after the records it already has, and return these records.
+	// CC instances will belong to ccHeader. A partly written record at the end of the log is discarded.
+	// A log of an earlier generation is replaced by an empty log of the given generation, as its records are already in a checkpoint.
+	public ArrayList<Record> openAndRead(InstancesHeader ccHeader, long generation) throws IOException {
+		if (!file.exists() || file.length() < FILE_HEADER_LENGTH || readGeneration() < generation) {
+			reset(generation, new ArrayList<Instance>());
+			return new ArrayList<Record>();
+		}
+
+		ArrayList<Record> records = new ArrayList<Record>();
+		long validLength = read(ccHeader, generation, records);
+		if (validLength < file.length()) {
+			System.err.println("Warning: discarding incomplete record at the end of write-ahead log " + file + ".");
+			RandomAccessFile truncatedFile = new RandomAccessFile(file, "rw");
+			try {
+				truncatedFile.setLength(validLength);
+				truncatedFile.getFD().sync();
+			} finally {
+				truncatedFile.close();
+			}
+		}
+
+		openForAppending(file);
+		return records;
+	}
+
+	// Append a WC or CC instance to the log. The log is committed once every groupCommitSize records.
+	public void append(byte type, Instance inst) throws IOException {
+		if (type == WC && !isWCHeaderWritten) {
+			recordBytes.reset();
+			writeObject(recordOut, new InstancesHeader(inst.dataset()));
+			writeRecord(HEADER);
+			isWCHeaderWritten = true;
+		}
+
+		recordBytes.reset();
+		int numAttributes = inst.numAttributes();
+		recordOut.writeDouble(inst.weight());
+		recordOut.writeInt(numAttributes);
+		for (int a=0; a<numAttributes; ++a)
+			recordOut.writeDouble(inst.value(a));
+		writeRecord(type);
+
+		if (++numUncommittedRecords >= groupCommitSize)
+			commit();
+	}
+
+	// Force all records appended so far to disk
+	public void commit() throws IOException {
+		out.flush();
+		fileOut.getChannel().force(false);
+		numUncommittedRecords = 0;
+	}
+
+	// Replace the log by a log of the given generation with a CC record for each of ccInstances, e.g., because a checkpoint containing
+	// all its records has been written, and open it for appending. The new log is forced to disk before it replaces the old one.
+	public void reset(long generation, Iterable<Instance> ccInstances) throws IOException {
+		closeFile();
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		writeFileHeader(tempFile, generation);
+		openForAppending(tempFile);
+		try {
+			for (Instance ccInstance : ccInstances)
+				append(CC, ccInstance);
+			commit();
+		} finally {
+			closeFile();
+		}
+
+		replaceFile(tempFile, file);
+		this.generation = generation;
+		openForAppending(file);
+	}
+
+	public void close() throws IOException {
+		if (out == null)
+			return;
+		try {
+			commit();
+		} finally {
+			closeFile();
+		}
+	}
+
+	// Rename source to target, replacing target atomically, and force the change of their directory to disk.
+	// Used to replace a file by a new version that has already been forced to disk, so that a crash leaves one of the two versions.
+	public static void replaceFile(File source, File target) throws IOException {
+		Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+		FileChannel directory;
+		try {
+			directory = FileChannel.open(target.getAbsoluteFile().getParentFile().toPath(), StandardOpenOption.READ);
+		} catch (IOException e) {
+			// Directories cannot be opened on some platforms, e.g., Windows, where the rename does not need to be forced to disk
+			return;
+		}
+		try {
+			directory.force(true);
+		} finally {
+			directory.close();
+		}
+	}
+
+	protected void closeFile() throws IOException {
+		if (out == null)
+			return;
+		try {
+			out.close();
+		} finally {
+			out = null;
+			fileOut = null;
+		}
+	}
+
+	protected static void writeFileHeader(File file, long generation) throws IOException {
+		FileOutputStream headerOut = new FileOutputStream(file);
+		try {
+			DataOutputStream dataOut = new DataOutputStream(headerOut);
+			dataOut.writeInt(MAGIC);
+			dataOut.writeInt(VERSION);
+			dataOut.writeLong(generation);
+			dataOut.flush();
+			headerOut.getFD().sync();
+		} finally {
+			headerOut.close();
+		}
+	}
+
+	// Generation written in the file header of the log
+	protected long readGeneration() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return readFileHeader(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Read the file header of the log, and return its generation
+	protected long readFileHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not an OATES write-ahead log: " + file);
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported OATES write-ahead log version " + version + ".");
+		return in.readLong();
+	}
+
+	protected void openForAppending(File file) throws IOException {
+		fileOut = new FileOutputStream(file, true);
+		out = new DataOutputStream(new BufferedOutputStream(fileOut));
+		isWCHeaderWritten = false;
+		numUncommittedRecords = 0;
+	}
+
+	// Write the contents of recordBytes as a record of the given type
+	protected void writeRecord(byte type) throws IOException {
+		recordOut.flush();
+
+		crc.reset();
+		crc.update(type);
+		crc.update(intBytes(recordBytes.size()));
+		crc.update(recordBytes.toByteArray());
+
+		out.writeByte(type);
+		out.writeInt(recordBytes.size());
+		recordBytes.writeTo(out);
+		out.writeInt((int) crc.getValue());
+	}
+
+	// Read the valid records of the log into records, and return the length of the file they take.
+	// Fails if the log is of a later generation than the given one, i.e., newer than the checkpoint it should be replayed on.
+	protected long read(InstancesHeader ccHeader, long generation, ArrayList<Record> records) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			long logGeneration = readFileHeader(in);
+			if (logGeneration > generation)
+				throw new IOException("Write-ahead log " + file + " is of generation " + logGeneration + ", newer than the checkpoint " +
+						"it is replayed on, of generation " + generation + ".");
+			this.generation = logGeneration;
+
+			long validLength = FILE_HEADER_LENGTH;
+			InstancesHeader wcHeader = null;
+			while (true) {
+				byte type;
+				byte []payload;
+				try {
+					type = in.readByte();
+					int length = in.readInt();
+					if (length < 0 || length > file.length())
+						break;
+					payload = new byte[length];
+					in.readFully(payload);
+
+					crc.reset();
+					crc.update(type);
+					crc.update(intBytes(length));
+					crc.update(payload);
+					if (in.readInt() != (int) crc.getValue())
+						break;
+				} catch (EOFException e) {
+					break;
+				}
+
+				DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload));
+				if (type == HEADER)
+					wcHeader = (InstancesHeader) readObject(payloadIn);
+				else {
+					double weight = payloadIn.readDouble();
+					double []values = new double[payloadIn.readInt()];
+					for (int a=0; a<values.length; ++a)
+						values[a] = payloadIn.readDouble();
+
+					InstancesHeader header = type == WC ? wcHeader : ccHeader;
+					if (header == null)
+						throw new IOException("WC record without header in OATES write-ahead log " + file + ".");
+					records.add(new Record(type, new InstanceRingBuffer.BufferedInstance(weight, values, header)));
+				}
+
+				validLength += 1 + 4 + payload.length + 4;
+			}
+			return validLength;
+		} finally {
+			in.close();
+		}
+	}
+
+	protected static byte[] intBytes(int value) {
+		return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	protected static void writeObject(DataOutputStream out, Object object) throws IOException {
+		ObjectOutputStream objectOut = new ObjectOutputStream(out);
+		objectOut.writeObject(object);
+		objectOut.flush();
+	}
+
+	protected static Object readObject(DataInputStream in) throws IOException {
+		ObjectInputStream objectIn = new ObjectInputStream(in);
+		try {
+			return objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unable to read header from OATES write-ahead log.", e);
+		}
+	}
+
+}
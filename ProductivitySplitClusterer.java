@@ -11,6 +11,9 @@
  * 
  * The left threshold is exclusive and the right is inclusive.
  * 
+ * The clustering is created once after each reset and returned by every call to getClusteringResult, and is never changed afterwards.
+ * getClusterIndex finds the cluster of an instance by binary search over the sorted thresholds.
+ * 
  */
 
 package moa.clusterers.threshold;
@@ -27,7 +30,7 @@ import moa.cluster.ProductivityThresholdCluster;
 import moa.clusterers.AbstractClusterer;
 import moa.core.Measurement;
 
-public class ProductivitySplitClusterer extends AbstractClusterer {
+public class ProductivitySplitClusterer extends AbstractClusterer implements DirectAssignmentClusterer, ImmutableClusteringClusterer {
 
 	private static final long serialVersionUID = 1L;
 	
@@ -42,6 +45,13 @@ public class ProductivitySplitClusterer extends AbstractClusterer {
 	
 	protected ArrayList<Double> prodThresholds;
 	
+	// Sorted thresholds, used by getClusterIndex
+	protected double[] sortedThresholds;
+	
+	// Clustering returned by getClusteringResult, and the attribute indexes its clusters were created with
+	protected Clustering clustering;
+	protected int clusteringEffortAttIndex, clusteringSizeAttIndex;
+	
 	public ProductivitySplitClusterer() {
 		super();
 		//resetLearningImpl();
@@ -55,6 +65,11 @@ public class ProductivitySplitClusterer extends AbstractClusterer {
 			prodThresholds.add(Double.parseDouble(prodThresholdsStr[i]));
 		}
 		Collections.sort(prodThresholds);
+		
+		sortedThresholds = new double[prodThresholds.size()];
+		for (int i=0; i<sortedThresholds.length; ++i)
+			sortedThresholds[i] = prodThresholds.get(i);
+		clustering = null;
 	}
 
 	public double getProductivityThreshold(int index) {
@@ -78,6 +93,43 @@ public class ProductivitySplitClusterer extends AbstractClusterer {
 	@Override
 	public Clustering getClusteringResult() {
 		
+		if (clustering == null || clusteringEffortAttIndex != effortAttIndexOption.getValue() 
+				|| clusteringSizeAttIndex != sizeAttIndexOption.getValue()) {
+			clustering = createClustering();
+			clusteringEffortAttIndex = effortAttIndexOption.getValue();
+			clusteringSizeAttIndex = sizeAttIndexOption.getValue();
+		}
+		return clustering;
+	}
+	
+	// Same cluster as the one with the largest inclusion probability in getClusteringResult(), found by binary search.
+	// Instances whose productivity is not in any cluster (e.g., missing values) have inclusion probability 0 in all clusters,
+	// so they belong to the first cluster.
+	@Override
+	public int getClusterIndex(Instance inst) {
+		
+		if (sortedThresholds == null || sortedThresholds.length == 0)
+			return -1;
+		
+		double prod = ProductivityThresholdCluster.getProductivity(inst, effortAttIndexOption.getValue(), sizeAttIndexOption.getValue());
+		
+		// First cluster whose right threshold is not smaller than prod. The last cluster's right threshold is Double.MAX_VALUE.
+		// Its left threshold is smaller than prod, except for the first cluster, whose left threshold is Double.MIN_VALUE.
+		int low = 0, high = sortedThresholds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedThresholds[middle] < prod)
+				low = middle + 1;
+			else high = middle;
+		}
+		
+		if ((low == 0 && !(prod > Double.MIN_VALUE)) || (low == sortedThresholds.length && !(prod <= Double.MAX_VALUE)))
+			return 0;
+		return low;
+	}
+	
+	protected Clustering createClustering() {
+		
 		Clustering clustering = new Clustering();
 
 		if (prodThresholds == null || prodThresholds.size() == 0)
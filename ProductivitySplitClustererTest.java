@@ -1,5 +1,6 @@
 package moa.clusterers.threshold;
 
+import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 
 import junit.framework.TestCase;
@@ -97,5 +98,43 @@ public class ProductivitySplitClustererTest extends TestCase {
 		
 		
 	}
+	
+	public void testGetClusterIndex() {
+		String []thresholds = {"1.0;2.0", "2.0;1.0;2.0", "-1.0;0.5;3.0;7.5;10.0"};
+		double []values = {-5.0, -1.0, -0.5, 0.0, 0.5, 1.0, 1.5, 2.0, 2.5, 3.0, 7.5, 9.0, 10.0, 11.0, 1e300, Double.NaN};
+		
+		for (String t : thresholds) {
+			ProductivitySplitClusterer clusterer = new ProductivitySplitClusterer();
+			clusterer.prodThresholdsOption.setValue(t);
+			clusterer.effortAttIndexOption.setValue(effIndex);
+			clusterer.sizeAttIndexOption.setValue(sizeIndex);
+			clusterer.resetLearningImpl();
+			
+			// The clustering is only created again after resetting
+			Clustering clusters = clusterer.getClusteringResult();
+			assertSame(clusters, clusterer.getClusteringResult());
+			
+			// Same cluster as the first one with the largest inclusion probability
+			for (double effort : values) {
+				for (double size : new double[] {0.0, 1.0, 1e-300, 2.0, -1.0}) {
+					Instance inst = new DenseInstance(1.0, new double[] {0.0, size, effort});
+					
+					double maxProb = -1.0;
+					int indexMaxProb = -1;
+					for (int c=0; c<clusters.size(); ++c) {
+						double prob = clusters.get(c).getInclusionProbability(inst);
+						if (prob > maxProb) {
+							maxProb = prob;
+							indexMaxProb = c;
+						}
+					}
+					assertEquals(indexMaxProb, clusterer.getClusterIndex(inst));
+				}
+			}
+			
+			clusterer.resetLearningImpl();
+			assertNotSame(clusters, clusterer.getClusteringResult());
+		}
+	}
 
 }
@@ -74,17 +74,20 @@ public class ProductivityThresholdCluster extends Cluster {
 	@Override
 	public double getInclusionProbability(Instance instance) {
 		
-		double prod;
-		
-		if (instance.value(sizeAttIndex) != 0)
-			prod = instance.value(effortAttIndex) / instance.value(sizeAttIndex);
-		else prod = Double.MAX_VALUE;
+		double prod = getProductivity(instance, effortAttIndex, sizeAttIndex);
 		
 		if (prod > leftThreshold && prod <= rightThreshold)
 			return 1;
 		
 		return 0;
 	}
+	
+	// Productivity (effort / size) of instance, or Double.MAX_VALUE if its size is zero
+	public static double getProductivity(Instance instance, int effortAttIndex, int sizeAttIndex) {
+		if (instance.value(sizeAttIndex) != 0)
+			return instance.value(effortAttIndex) / instance.value(sizeAttIndex);
+		return Double.MAX_VALUE;
+	}
 
 	@Override
 	public Instance sample(Random random) {
@@ -0,0 +1,201 @@
+/**
+ * A stream read from an ARFF file, which can continue from any of its instances.
+ *
+ * Positions are the byte offsets of the lines of the instances in the file. When seeking, the ARFF header is read again
+ * and the file is read from the given offset, so the instances before it are not parsed.
+ *
+ */
+
+package moa.streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.core.InputStreamProgressMonitor;
+import moa.core.InstanceExample;
+
+public class SeekableArffFileStream extends ArffFileStream implements SeekableInstanceStream {
+
+	private static final long serialVersionUID = 1L;
+
+	protected long recordNumber;
+
+	public SeekableArffFileStream() {
+	}
+
+	public SeekableArffFileStream(String arffFileName, int classIndex) {
+		super(arffFileName, classIndex);
+	}
+
+	@Override
+	public String getPurposeString() {
+		return "A stream read from an ARFF file, which can continue from any of its instances.";
+	}
+
+	@Override
+	public File getFile() {
+		return this.arffFileOption.getFile();
+	}
+
+	@Override
+	public long getRecordNumber() {
+		return recordNumber;
+	}
+
+	@Override
+	public InstanceExample nextInstance() {
+		if (hasMoreInstances())
+			recordNumber++;
+		return super.nextInstance();
+	}
+
+	@Override
+	public void restart() {
+		super.restart();
+		recordNumber = 0;
+	}
+
+	@Override
+	public void seek(long recordNumber, long position) {
+		try {
+			if (this.fileReader != null)
+				this.fileReader.close();
+
+			// Read the header followed by the instances from position onwards
+			long dataOffset = findDataOffset(getFile());
+			byte []header = new byte[(int) dataOffset];
+			FileInputStream fileStream = new FileInputStream(getFile());
+			readFully(fileStream, header);
+			fileStream.getChannel().position(position);
+
+			InputStream stream = new SequenceInputStream(new ByteArrayInputStream(header), fileStream);
+			this.fileProgressMonitor = new InputStreamProgressMonitor(stream);
+			this.fileReader = new BufferedReader(new InputStreamReader(this.fileProgressMonitor));
+
+			int classIndex = this.instances.classIndex();
+			this.instances = new Instances(this.fileReader, 1, -1);
+			this.instances.setClassIndex(classIndex);
+
+			this.numInstancesRead = 0;
+			this.lastInstanceRead = null;
+			this.hitEndOfFile = !readNextInstanceFromFile();
+			this.recordNumber = recordNumber;
+		} catch (IOException ioe) {
+			throw new RuntimeException("SeekableArffFileStream seek failed.", ioe);
+		}
+	}
+
+	@Override
+	public TimestampIndex buildTimestampIndex(int timestampIndex) {
+		try {
+			long []lineOffsets = findInstanceLineOffsets(getFile());
+
+			// The instances are read in the same order as their lines
+			ArffFileStream stream = new ArffFileStream(getFile().getPath(), -1);
+			ArrayList<Double> timestamps = new ArrayList<Double>();
+			while (stream.hasMoreInstances())
+				timestamps.add(stream.nextInstance().getData().value(timestampIndex));
+
+			if (timestamps.size() != lineOffsets.length)
+				throw new IOException("Found " + lineOffsets.length + " instance lines, but read " + timestamps.size() + " instances.");
+
+			double []timestampArray = new double[timestamps.size()];
+			for (int i=0; i<timestampArray.length; ++i)
+				timestampArray[i] = timestamps.get(i);
+			return new TimestampIndex(timestampIndex, timestampArray, lineOffsets);
+		} catch (IOException ioe) {
+			throw new RuntimeException("SeekableArffFileStream failed to build timestamp index.", ioe);
+		}
+	}
+
+	protected static void readFully(InputStream in, byte []bytes) throws IOException {
+		int read = 0;
+		while (read < bytes.length) {
+			int n = in.read(bytes, read, bytes.length - read);
+			if (n < 0)
+				throw new IOException("Unexpected end of file.");
+			read += n;
+		}
+	}
+
+	// Byte offset of the line after the @data line
+	protected static long findDataOffset(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			LineScanner scanner = new LineScanner(in);
+			while (scanner.nextLine()) {
+				if (scanner.line.trim().toLowerCase().startsWith("@data"))
+					return scanner.endOffset;
+			}
+		} finally {
+			in.close();
+		}
+		throw new IOException("No @data section found in " + file + ".");
+	}
+
+	// Byte offsets of the lines containing instances, i.e., non-empty lines after the @data line that are not comments
+	protected static long[] findInstanceLineOffsets(File file) throws IOException {
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			LineScanner scanner = new LineScanner(in);
+			boolean inData = false;
+			while (scanner.nextLine()) {
+				String line = scanner.line.trim();
+				if (!inData)
+					inData = line.toLowerCase().startsWith("@data");
+				else if (line.length() != 0 && !line.startsWith("%"))
+					offsets.add(scanner.startOffset);
+			}
+		} finally {
+			in.close();
+		}
+
+		long []offsetArray = new long[offsets.size()];
+		for (int i=0; i<offsetArray.length; ++i)
+			offsetArray[i] = offsets.get(i);
+		return offsetArray;
+	}
+
+	// Reads the lines of a stream, keeping the byte offsets where each line starts and ends
+	protected static class LineScanner {
+
+		protected InputStream in;
+		protected long offset;
+
+		protected String line;
+		protected long startOffset, endOffset;
+
+		protected LineScanner(InputStream in) {
+			this.in = in;
+		}
+
+		protected boolean nextLine() throws IOException {
+			StringBuilder builder = new StringBuilder();
+			startOffset = offset;
+			int b;
+			while ((b = in.read()) != -1) {
+				offset++;
+				if (b == '\n')
+					break;
+				builder.append((char) b);
+			}
+			if (b == -1 && offset == startOffset)
+				return false;
+			line = builder.toString();
+			endOffset = offset;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+/**
+ * Instance stream read from a file, which can continue from any of its instances.
+ *
+ * Used with TimestampIndex, so that OATES can find the CC instances before a given time without reading them one by one.
+ *
+ */
+
+package moa.streams;
+
+import java.io.File;
+
+public interface SeekableInstanceStream extends InstanceStream {
+
+	// File the instances are read from
+	public File getFile();
+	
+	// Number of instances given by the stream so far, i.e., the record number of the next instance
+	public long getRecordNumber();
+	
+	// Make the next instance be the one with the given record number, stored at the given position of the file.
+	// Positions are the ones stored in the index built by buildTimestampIndex.
+	public void seek(long recordNumber, long position);
+	
+	// Build an index with the timestamp and the position of each instance in the file, in the order of the stream.
+	// timestampIndex is the index of the timestamp attribute.
+	public TimestampIndex buildTimestampIndex(int timestampIndex);
+	
+}
@@ -11,6 +11,9 @@
  * 
  * This works only for regression problems.
  * 
+ * The factor b is an exponential moving average over the WC instances, so training on new WC instances continues the same sequence
+ * of updates that a reset followed by a replay of all WC instances would perform. Hence, it is an IncrementalMappingFunction.
+ * 
  */
 
 package moa.classifiers.meta;
@@ -22,7 +25,7 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.core.Measurement;
 
-public class SimpleLinearMappingFunction extends AbstractClassifier implements MappingFunction {
+public class SimpleLinearMappingFunction extends AbstractClassifier implements IncrementalMappingFunction {
 
 	private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,133 @@
+/**
+ * View of an instance of a WC or CC data stream without its last attribute, which is the timestamp, used by OATES instead of
+ * copying the instance and deleting the timestamp attribute.
+ *
+ * The view reads the attribute values of the original instance, so creating it does not copy any values.
+ * It belongs to the dataset without timestamp given when creating it. Setting a value of the view sets the value of the original instance.
+ * Deleting attributes from the view first gives it its own copy of the values, leaving the original instance unchanged.
+ * Copies of the view have their own values.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.DenseInstanceData;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstanceData;
+import com.yahoo.labs.samoa.instances.InstanceImpl;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+public class TimestampFreeInstance extends InstanceImpl {
+
+	private static final long serialVersionUID = 1L;
+
+	// headerNoTimeStamp must describe all attributes of inst but the last one
+	public TimestampFreeInstance(Instance inst, InstancesHeader headerNoTimeStamp) {
+		super(inst.weight(), new TimestampFreeInstanceData(inst));
+		this.instanceHeader = headerNoTimeStamp;
+	}
+
+	// Values of an instance without its last attribute
+	protected static class TimestampFreeInstanceData implements InstanceData {
+
+		private static final long serialVersionUID = 1L;
+
+		protected Instance inst;
+
+		// Own copy of the values, once attributes have been deleted; null before that
+		protected InstanceData detachedData;
+
+		protected TimestampFreeInstanceData(Instance inst) {
+			this.inst = inst;
+		}
+
+		@Override
+		public int numAttributes() {
+			if (detachedData != null)
+				return detachedData.numAttributes();
+			return inst.numAttributes()-1;
+		}
+
+		@Override
+		public double value(int instAttIndex) {
+			if (detachedData != null)
+				return detachedData.value(instAttIndex);
+			return inst.value(instAttIndex);
+		}
+
+		@Override
+		public boolean isMissing(int instAttIndex) {
+			if (detachedData != null)
+				return detachedData.isMissing(instAttIndex);
+			return inst.isMissing(instAttIndex);
+		}
+
+		@Override
+		public int numValues() {
+			if (detachedData != null)
+				return detachedData.numValues();
+			// Sparse instances only store the timestamp if it is not zero, and always as their last value
+			int numValues = inst.numValues();
+			if (numValues > 0 && inst.index(numValues-1) == inst.numAttributes()-1)
+				numValues--;
+			return numValues;
+		}
+
+		@Override
+		public int index(int i) {
+			if (detachedData != null)
+				return detachedData.index(i);
+			return inst.index(i);
+		}
+
+		@Override
+		public double valueSparse(int i) {
+			if (detachedData != null)
+				return detachedData.valueSparse(i);
+			return inst.valueSparse(i);
+		}
+
+		@Override
+		public boolean isMissingSparse(int p) {
+			if (detachedData != null)
+				return detachedData.isMissingSparse(p);
+			return inst.isMissingSparse(p);
+		}
+
+		@Override
+		public double[] toDoubleArray() {
+			if (detachedData != null)
+				return detachedData.toDoubleArray();
+			double []values = new double[inst.numAttributes()-1];
+			for (int a=0; a<values.length; ++a)
+				values[a] = inst.value(a);
+			return values;
+		}
+
+		@Override
+		public void setValue(int attributeIndex, double d) {
+			if (detachedData != null)
+				detachedData.setValue(attributeIndex, d);
+			else inst.setValue(attributeIndex, d);
+		}
+
+		@Override
+		public void deleteAttributeAt(int index) {
+			detach();
+			detachedData.deleteAttributeAt(index);
+		}
+
+		@Override
+		public InstanceData copy() {
+			if (detachedData != null)
+				return detachedData.copy();
+			return new DenseInstanceData(toDoubleArray());
+		}
+
+		protected void detach() {
+			if (detachedData == null)
+				detachedData = new DenseInstanceData(toDoubleArray());
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Timestamp and position of each instance of a file, in the order of the file.
+ *
+ * Built once per file by a SeekableInstanceStream and stored next to the file, with the extension FILE_EXTENSION added to its name.
+ * The stored index is rebuilt when the file has changed since the index was stored.
+ *
+ * Record i is the i-th instance of the file, starting from 0.
+ *
+ */
+
+package moa.streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+public class TimestampIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	public static final int MAGIC = 0x4F415449;
+	public static final int VERSION = 1;
+	public static final String FILE_EXTENSION = ".tsindex";
+	
+	protected int timestampIndex;
+	protected double[] timestamps;
+	protected long[] positions;
+	
+	// Whether the timestamps never decrease
+	protected boolean sorted;
+	
+	public TimestampIndex(int timestampIndex, double []timestamps, long []positions) {
+		if (timestamps.length != positions.length)
+			throw new IllegalArgumentException("There must be one position per timestamp.");
+		
+		this.timestampIndex = timestampIndex;
+		this.timestamps = timestamps;
+		this.positions = positions;
+		
+		this.sorted = true;
+		for (int i=1; i<timestamps.length && sorted; ++i)
+			if (timestamps[i] < timestamps[i-1])
+				sorted = false;
+	}
+	
+	public int size() {
+		return timestamps.length;
+	}
+	
+	public double getTimestamp(int record) {
+		return timestamps[record];
+	}
+	
+	public long getPosition(int record) {
+		return positions[record];
+	}
+	
+	public boolean isSorted() {
+		return sorted;
+	}
+	
+	public int getTimestampIndex() {
+		return timestampIndex;
+	}
+	
+	// Number of records with timestamp smaller than timestamp. Requires the index to be sorted.
+	public int countBefore(double timestamp) {
+		int low = 0, high = timestamps.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp)
+				low = middle + 1;
+			else high = middle;
+		}
+		return low;
+	}
+	
+	// Load the index of the file of stream, or build and store it if there is no up-to-date index for this file
+	public static TimestampIndex loadOrBuild(SeekableInstanceStream stream, int timestampIndex) {
+		File file = stream.getFile();
+		File indexFile = new File(file.getPath() + FILE_EXTENSION);
+		
+		if (indexFile.exists()) {
+			try {
+				TimestampIndex index = load(indexFile, file, timestampIndex);
+				if (index != null)
+					return index;
+			} catch (IOException e) {
+				System.err.println("Warning: unable to read timestamp index " + indexFile + ". Rebuilding it.");
+			}
+		}
+		
+		TimestampIndex index = stream.buildTimestampIndex(timestampIndex);
+		try {
+			index.save(indexFile, file);
+		} catch (IOException e) {
+			System.err.println("Warning: unable to store timestamp index " + indexFile + ".");
+		}
+		return index;
+	}
+	
+	// Returns null if the index was stored for a different version of the file or a different timestamp attribute
+	protected static TimestampIndex load(File indexFile, File file, int timestampIndex) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			if (in.readLong() != file.length() || in.readLong() != file.lastModified() || in.readInt() != timestampIndex)
+				return null;
+			
+			int size = in.readInt();
+			double []timestamps = new double[size];
+			long []positions = new long[size];
+			for (int i=0; i<size; ++i)
+				timestamps[i] = in.readDouble();
+			for (int i=0; i<size; ++i)
+				positions[i] = in.readLong();
+			return new TimestampIndex(timestampIndex, timestamps, positions);
+		} finally {
+			in.close();
+		}
+	}
+	
+	protected void save(File indexFile, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			out.writeInt(timestampIndex);
+			out.writeInt(timestamps.length);
+			for (int i=0; i<timestamps.length; ++i)
+				out.writeDouble(timestamps[i]);
+			for (int i=0; i<positions.length; ++i)
+				out.writeLong(positions[i]);
+		} finally {
+			out.close();
+		}
+	}
+	
+}
@@ -0,0 +1,90 @@
+package moa.streams;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+public class TimestampIndexTest extends TestCase {
+
+	public TimestampIndexTest() {
+		super();
+	}
+
+	public TimestampIndexTest(String name) {
+		super(name);
+	}
+	
+	private File arffFile, columnarFile;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		arffFile = File.createTempFile("timestamp_index_test", ".arff");
+		FileWriter writer = new FileWriter(arffFile);
+		writer.write("@relation test\n% comment\n@attribute id numeric\n@attribute effort numeric\n@attribute timestamp numeric\n@data\n");
+		writer.write("1,10,1\n\n2,20,3\n% comment\n3,30,3\n4,40,7\n");
+		writer.close();
+		
+		columnarFile = File.createTempFile("timestamp_index_test", ColumnarFileStream.FILE_EXTENSION);
+		ArffToColumnarFile.convert(arffFile.getPath(), columnarFile.getPath());
+	}
+
+	protected void tearDown() throws Exception {
+		new File(arffFile.getPath() + TimestampIndex.FILE_EXTENSION).delete();
+		new File(columnarFile.getPath() + TimestampIndex.FILE_EXTENSION).delete();
+		arffFile.delete();
+		columnarFile.delete();
+		super.tearDown();
+	}
+	
+	public void testCountBefore() {
+		TimestampIndex index = new TimestampIndex(2, new double[]{1, 3, 3, 7}, new long[]{0, 1, 2, 3});
+		assertTrue(index.isSorted());
+		assertEquals(0, index.countBefore(1));
+		assertEquals(1, index.countBefore(2));
+		assertEquals(1, index.countBefore(3));
+		assertEquals(3, index.countBefore(3.5));
+		assertEquals(4, index.countBefore(100));
+		
+		assertFalse(new TimestampIndex(2, new double[]{3, 1}, new long[]{0, 1}).isSorted());
+	}
+	
+	public void testSeekArff() {
+		checkSeek(new SeekableArffFileStream(arffFile.getPath(), -1));
+	}
+	
+	public void testSeekColumnar() {
+		checkSeek(new ColumnarFileStream(columnarFile.getPath(), -1));
+	}
+	
+	private void checkSeek(SeekableInstanceStream stream) {
+		TimestampIndex index = TimestampIndex.loadOrBuild(stream, 2);
+		assertEquals(4, index.size());
+		assertEquals(3.0, index.getTimestamp(2));
+		assertTrue(new File(stream.getFile().getPath() + TimestampIndex.FILE_EXTENSION).exists());
+		
+		// The stored index is loaded the second time
+		TimestampIndex storedIndex = TimestampIndex.loadOrBuild(stream, 2);
+		for (int i=0; i<index.size(); ++i) {
+			assertEquals(index.getTimestamp(i), storedIndex.getTimestamp(i));
+			assertEquals(index.getPosition(i), storedIndex.getPosition(i));
+		}
+		
+		// Continue from the first instance with timestamp 3
+		int record = index.countBefore(3);
+		stream.seek(record, index.getPosition(record));
+		assertEquals(1, stream.getRecordNumber());
+		assertEquals(2.0, stream.nextInstance().getData().value(0));
+		assertEquals(3.0, stream.nextInstance().getData().value(0));
+		assertEquals(3, stream.getRecordNumber());
+		
+		// The class index is kept (the last attribute)
+		assertEquals(7.0, stream.nextInstance().getData().classValue());
+		assertFalse(stream.hasMoreInstances());
+		
+		// Go back to the first instance
+		stream.seek(0, index.getPosition(0));
+		assertEquals(1.0, stream.nextInstance().getData().value(0));
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Merges several instance streams, each sorted by a timestamp attribute, into a single stream sorted by that attribute.
+ *
+ * The streams are merged on the fly using a priority queue over the next instance of each stream, so at most one instance
+ * per stream is buffered. Instances with the same timestamp are given in the order of the streams, and instances of the same stream
+ * are always given in the order of that stream.
+ *
+ * All streams must have the same attributes. The header of the merged stream is the header of the first stream.
+ * Changes to its class index are applied to all streams before their next instances are given.
+ *
+ * Used by OATES to read several CC data streams.
+ *
+ */
+
+package moa.streams;
+
+import java.util.PriorityQueue;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.AbstractMOAObject;
+import moa.core.Example;
+
+public class TimestampMergedInstanceStream extends AbstractMOAObject implements InstanceStream {
+
+	private static final long serialVersionUID = 1L;
+
+	protected InstanceStream[] streams;
+
+	protected int timestampIndex;
+
+	protected InstancesHeader header;
+
+	// Next instance of each stream that has not been given yet
+	protected PriorityQueue<StreamHead> heads;
+
+	// Class index last applied to all streams
+	protected int streamsClassIndex;
+
+	protected static class StreamHead implements Comparable<StreamHead>, java.io.Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final int streamIndex;
+		protected final Example<Instance> example;
+		protected final double timestamp;
+
+		protected StreamHead(int streamIndex, Example<Instance> example, double timestamp) {
+			this.streamIndex = streamIndex;
+			this.example = example;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public int compareTo(StreamHead other) {
+			int comparison = Double.compare(timestamp, other.timestamp);
+			if (comparison != 0)
+				return comparison;
+			return Integer.compare(streamIndex, other.streamIndex);
+		}
+	}
+
+	// timestampIndex is the index of the timestamp attribute (starting from 0)
+	public TimestampMergedInstanceStream(InstanceStream []streams, int timestampIndex) {
+		if (streams.length == 0)
+			throw new IllegalArgumentException("At least one stream is needed.");
+
+		this.streams = streams;
+		this.timestampIndex = timestampIndex;
+		this.header = streams[0].getHeader();
+
+		for (int k=1; k<streams.length; ++k) {
+			if (streams[k].getHeader().numAttributes() != header.numAttributes())
+				throw new IllegalArgumentException("Stream " + k + " has " + streams[k].getHeader().numAttributes() +
+						" attributes, but stream 0 has " + header.numAttributes() + ".");
+		}
+
+		fillHeads();
+	}
+
+	// Read the first instance of each stream
+	protected void fillHeads() {
+		streamsClassIndex = header.classIndex();
+		heads = new PriorityQueue<StreamHead>(streams.length);
+		for (int k=0; k<streams.length; ++k)
+			readHead(k);
+	}
+
+	protected void readHead(int k) {
+		if (streams[k].hasMoreInstances()) {
+			Example<Instance> example = streams[k].nextInstance();
+			heads.add(new StreamHead(k, example, example.getData().value(timestampIndex)));
+		}
+	}
+
+	// Apply the class index of the header to the streams, if it has changed
+	protected void updateStreamsClassIndex() {
+		int classIndex = header.classIndex();
+		if (classIndex == streamsClassIndex)
+			return;
+		for (int k=1; k<streams.length; ++k)
+			streams[k].getHeader().setClassIndex(classIndex);
+		streamsClassIndex = classIndex;
+	}
+
+	@Override
+	public InstancesHeader getHeader() {
+		return header;
+	}
+
+	@Override
+	public long estimatedRemainingInstances() {
+		long remaining = heads.size();
+		for (int k=0; k<streams.length; ++k) {
+			long streamRemaining = streams[k].estimatedRemainingInstances();
+			if (streamRemaining < 0)
+				return -1;
+			remaining += streamRemaining;
+		}
+		return remaining;
+	}
+
+	@Override
+	public boolean hasMoreInstances() {
+		return !heads.isEmpty();
+	}
+
+	@Override
+	public Example<Instance> nextInstance() {
+		updateStreamsClassIndex();
+
+		StreamHead head = heads.poll();
+		if (head == null)
+			return null;
+		readHead(head.streamIndex);
+
+		return head.example;
+	}
+
+	@Override
+	public boolean isRestartable() {
+		for (int k=0; k<streams.length; ++k)
+			if (!streams[k].isRestartable())
+				return false;
+		return true;
+	}
+
+	@Override
+	public void restart() {
+		int classIndex = header.classIndex();
+		for (int k=0; k<streams.length; ++k)
+			streams[k].restart();
+		header = streams[0].getHeader();
+		header.setClassIndex(classIndex);
+		for (int k=1; k<streams.length; ++k)
+			streams[k].getHeader().setClassIndex(classIndex);
+		fillHeads();
+	}
+
+	@Override
+	public void getDescription(StringBuilder sb, int indent) {
+		sb.append("Merge of " + streams.length + " streams by the timestamp attribute " + timestampIndex);
+	}
+
+}
@@ -0,0 +1,77 @@
+package moa.streams;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import junit.framework.TestCase;
+
+public class TimestampMergedInstanceStreamTest extends TestCase {
+
+	public TimestampMergedInstanceStreamTest() {
+		super();
+	}
+
+	public TimestampMergedInstanceStreamTest(String name) {
+		super(name);
+	}
+	
+	private File file1, file2;
+	
+	protected void setUp() throws Exception {
+		super.setUp();
+		// attributes: id, effort, timestamp
+		file1 = createArffFile(new String[]{"1,10,1", "2,20,3", "3,30,3", "4,40,7"});
+		file2 = createArffFile(new String[]{"5,50,2", "6,60,3", "7,70,8"});
+	}
+
+	protected void tearDown() throws Exception {
+		file1.delete();
+		file2.delete();
+		super.tearDown();
+	}
+	
+	private File createArffFile(String []lines) throws IOException {
+		File file = File.createTempFile("merged_stream_test", ".arff");
+		FileWriter writer = new FileWriter(file);
+		writer.write("@relation test\n@attribute id numeric\n@attribute effort numeric\n@attribute timestamp numeric\n@data\n");
+		for (int i=0; i<lines.length; ++i)
+			writer.write(lines[i] + "\n");
+		writer.close();
+		return file;
+	}
+	
+	private TimestampMergedInstanceStream createStream() {
+		InstanceStream []streams = {new ArffFileStream(file1.getPath(), -1), new ArffFileStream(file2.getPath(), -1)};
+		return new TimestampMergedInstanceStream(streams, 2);
+	}
+	
+	public void testMergeOrder() {
+		TimestampMergedInstanceStream stream = createStream();
+		
+		// Ties are given in the order of the streams, and instances of the same stream keep their order
+		double []expectedIds = {1, 5, 2, 3, 6, 4, 7};
+		for (int i=0; i<expectedIds.length; ++i) {
+			assertTrue(stream.hasMoreInstances());
+			assertEquals(expectedIds[i], stream.nextInstance().getData().value(0));
+		}
+		assertFalse(stream.hasMoreInstances());
+		
+		stream.restart();
+		assertEquals(1.0, stream.nextInstance().getData().value(0));
+	}
+	
+	public void testClassIndex() {
+		TimestampMergedInstanceStream stream = createStream();
+		stream.getHeader().setClassIndex(1);
+		
+		while (stream.hasMoreInstances()) {
+			Instance inst = stream.nextInstance().getData();
+			assertEquals(1, inst.classIndex());
+			assertEquals(inst.value(0) * 10, inst.classValue());
+		}
+	}
+
+}
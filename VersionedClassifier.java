@@ -0,0 +1,133 @@
+/**
+ * Wraps a learner and counts the changes made to its model, so that OATES can tell whether predictions it has
+ * previously obtained from this learner are still valid.
+ *
+ * The model version is increased every time the learner is trained or reset. It is not increased by predictions.
+ * If the learner is a VersionedModel, whose model can also change on its own (e.g., through a background rebuild), its own model
+ * version is added, so that these changes also change the model version.
+ * All other calls are delegated to the wrapped learner, so that the wrapper is transparent to the rest of MOA.
+ * It has no constructor without a learner, so that it is not created on its own (e.g., by MOA's class discovery).
+ *
+ */
+
+package moa.classifiers.meta;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.Classifier;
+import moa.classifiers.Regressor;
+import moa.core.Measurement;
+
+public class VersionedClassifier extends AbstractClassifier implements Regressor {
+
+	private static final long serialVersionUID = 1L;
+
+	protected Classifier classifier;
+
+	protected long modelVersion;
+
+	public VersionedClassifier(Classifier classifier) {
+		super();
+		this.classifier = classifier;
+		this.modelVersion = 0;
+	}
+
+	public Classifier getClassifier() {
+		return classifier;
+	}
+
+	public long getModelVersion() {
+		if (classifier instanceof VersionedModel)
+			return modelVersion + ((VersionedModel) classifier).getModelVersion();
+		return modelVersion;
+	}
+
+	@Override
+	public String getPurposeString() {
+		return "Learner whose model changes are counted: " + classifier.getPurposeString();
+	}
+
+	@Override
+	public boolean isRandomizable() {
+		return false;
+	}
+
+	@Override
+	public void setRandomSeed(int s) {
+		classifier.setRandomSeed(s);
+	}
+
+	@Override
+	public void resetLearning() {
+		classifier.resetLearning();
+		modelVersion++;
+	}
+
+	@Override
+	public void resetLearningImpl() {
+	}
+
+	@Override
+	public void trainOnInstance(Instance inst) {
+		classifier.trainOnInstance(inst);
+		modelVersion++;
+	}
+
+	@Override
+	public void trainOnInstanceImpl(Instance inst) {
+		classifier.trainOnInstance(inst);
+	}
+
+	@Override
+	public double[] getVotesForInstance(Instance inst) {
+		return classifier.getVotesForInstance(inst);
+	}
+
+	@Override
+	public boolean trainingHasStarted() {
+		return classifier.trainingHasStarted();
+	}
+
+	@Override
+	public double trainingWeightSeenByModel() {
+		return classifier.trainingWeightSeenByModel();
+	}
+
+	@Override
+	public void setModelContext(InstancesHeader ih) {
+		classifier.setModelContext(ih);
+	}
+
+	@Override
+	public InstancesHeader getModelContext() {
+		return classifier.getModelContext();
+	}
+
+	@Override
+	public Classifier[] getSubClassifiers() {
+		return classifier.getSubClassifiers();
+	}
+
+	@Override
+	public Measurement[] getModelMeasurements() {
+		return classifier.getModelMeasurements();
+	}
+
+	@Override
+	protected Measurement[] getModelMeasurementsImpl() {
+		return null;
+	}
+
+	@Override
+	public void getDescription(StringBuilder out, int indent) {
+		classifier.getDescription(out, indent);
+	}
+
+	@Override
+	public void getModelDescription(StringBuilder out, int indent) {
+		classifier.getDescription(out, indent);
+	}
+
+}
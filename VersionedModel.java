@@ -0,0 +1,16 @@
+/**
+ * Interface for learners whose model can change outside of their training calls, e.g., when a rebuild running in the background
+ * replaces it, or when a postponed rebuild is carried out before a prediction. VersionedClassifier adds the model version of the
+ * learner it wraps to its own, so that OATES also notices these changes.
+ *
+ */
+
+package moa.classifiers.meta;
+
+public interface VersionedModel {
+
+	// Number that increases every time the model changes, including changes not caused by training or resetting the learner.
+	// Can be called from any thread.
+	public long getModelVersion();
+	
+}
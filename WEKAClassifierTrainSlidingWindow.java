@@ -5,11 +5,36 @@
  * Change in the WEKAClassifier in order to train on a sliding window of examples if the WEKA classifier.
  * If the window is not full yet, at each time step, will train on all examples seen so far. 
  * 
+ * The window is kept as a WEKA dataset, which is given as it is to buildClassifier, so rebuilds do not create any instance.
+ * Removing its oldest instance only moves the start of the window. The instances that have left it are dropped in one go when the
+ * dataset is given to WEKA, or once they are as many as the instances in the window, so each training instance takes constant time
+ * even when the classifier is not rebuilt at every instance.
+ * 
  * The WEKAClassifier will train non-updateable WEKA classifiers as chunk-based learners.
+ * 
+ * By default, the WEKA classifier is rebuilt on the whole window at every training instance. It can instead be rebuilt only every
+ * rebuildPeriod instances or when rebuildTimeBudget milliseconds have passed since the last rebuild. Updateable WEKA classifiers
+ * can also be updated with each new instance while no instance has left the window since the last rebuild (updateIncrementally).
+ * When any of these modes is used, the measurements tell how far the current model is from the window.
+ * 
+ * With lazyRebuild, a due rebuild is postponed until the classifier is next used for a prediction or flush is called, so that a burst
+ * of training instances leads to a single rebuild. With the default rebuildPeriod of 1, predictions are the same as without lazyRebuild.
+ * As predictions may then rebuild the classifier, they must not be made concurrently with each other or with training.
+ * 
+ * With sharedConversionCache, instances are converted to WEKA format through WEKAInstanceCache.SHARED, so that an instance given to
+ * several WEKA-based learners (e.g., the members of an OATES ensemble) or to the same learner several times is converted only once.
+ * 
+ * With rebuildInBackground, rebuilds run on a background thread instead of blocking training. Predictions are given by the last
+ * rebuilt classifier until the new one replaces it, so they depend on timing unless waitForPendingRebuild is called before predicting.
  */
 
 package moa.classifiers.meta;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
@@ -19,10 +44,11 @@ import moa.classifiers.Regressor;
 import moa.core.Measurement;
 import moa.options.WEKAClassOption;
 import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
 
 public class WEKAClassifierTrainSlidingWindow  
 extends AbstractClassifier 
-implements Regressor {
+implements Regressor, VersionedModel {
 
 	private static final long serialVersionUID = 1L;
 
@@ -37,11 +63,106 @@ implements Regressor {
 	public IntOption minInstancesForTraining = new IntOption("minInstances",
 			'm', "Minimum number of instances to use for allowing to build a classifier before the sliding window is full. Should be smaller or equal to the window width.", 1, 1, Integer.MAX_VALUE);
 
-	protected Classifier classifier;
+	public IntOption rebuildPeriodOption = new IntOption("rebuildPeriod",
+			'n', "Number of training instances between rebuilds of the classifier on the whole window. The first classifier is built as soon as " +
+			"there are minInstances instances. In between, predictions are given by a classifier that does not include the most recent instances.", 
+			1, 1, Integer.MAX_VALUE);
+	
+	public IntOption rebuildTimeBudgetOption = new IntOption("rebuildTimeBudget",
+			't', "If larger than 0, the classifier is also rebuilt when a training instance arrives at least this number of milliseconds after " +
+			"the end of the last rebuild. Results then depend on timing.", 0, 0, Integer.MAX_VALUE);
+	
+	public FlagOption updateIncrementallyOption = new FlagOption("updateIncrementally",
+			'u', "If the WEKA classifier is updateable, update it with each new training instance instead of rebuilding it, as long as no " +
+			"instance has left the window since the last rebuild. Once instances leave the window, the classifier is rebuilt according to " +
+			"rebuildPeriod and rebuildTimeBudget.");
+	
+	public FlagOption rebuildInBackgroundOption = new FlagOption("rebuildInBackground",
+			'b', "Rebuild the classifier on a background thread, so that training only adds instances to the window and schedules the rebuild. " +
+			"Predictions are given by the last rebuilt classifier until the new one replaces it. Rebuilds scheduled while another one runs are " +
+			"merged into a single rebuild on the latest window.");
+
+	public FlagOption lazyRebuildOption = new FlagOption("lazyRebuild",
+			'z', "Postpone due rebuilds of the classifier until it is next used for a prediction or flush is called, so that consecutive training " +
+			"instances lead to a single rebuild on the latest window. Predictions may then rebuild the classifier, so they are not reentrant: " +
+			"they must not be made at the same time as other predictions or as training.");
+	
+	public FlagOption sharedConversionCacheOption = new FlagOption("sharedConversionCache",
+			'c', "Convert instances to WEKA format, and to log scale for log learners, through the cache shared by all WEKA-based learners, " +
+			"so that each instance is converted only once. Instances must not be modified after being given to the learner.");
 
-	protected weka.core.Instances instancesBuffer;
+	// Replaced by the background thread when rebuildInBackgroundOption is set, hence volatile
+	protected volatile Classifier classifier;
 	
-	protected boolean isClassificationEnabled;
+	// Untrained WEKA classifier configured by baseLearnerOption, copied whenever a new classifier is needed,
+	// so that the options are parsed only once. prototypeCLIString holds the options it was created with.
+	protected Classifier prototypeClassifier;
+	protected String prototypeCLIString;
+	
+	// Number of instances ever added to the window. The window holds the instances from numAdded - window.numWindowInstances() to numAdded.
+	protected long numAdded;
+	
+	// The classifier was trained on the instances from modelStart (inclusive) to modelEnd (exclusive)
+	protected long modelStart, modelEnd;
+	
+	protected long numRebuilds, numIncrementalUpdates;
+	protected int numInstancesSinceRebuild;
+	protected long lastRebuildEndMillis;
+	
+	// Whether a rebuild has been postponed by lazyRebuildOption. Only accessed while holding the lock of this object, 
+	// as predictions carry out the postponed rebuild.
+	protected boolean isModelDirty;
+	
+	// Increased whenever the classifier changes, including when a background rebuild replaces it, hence volatile
+	protected volatile long modelVersion;
+	
+	// Runs the background rebuilds, one at a time
+	protected transient ForkJoinPool rebuildPool;
+	// Whether a background rebuild has been scheduled and has not started yet. Rebuilds scheduled before one starts are merged into it.
+	protected transient boolean isRebuildPending;
+	// Whether the background thread is running rebuilds
+	protected transient boolean isRebuildRunning;
+	// Whether a background rebuild has been scheduled since the last reset
+	protected transient boolean hasScheduledRebuild;
+
+	// Instances of the sliding window, oldest first; null before the first training instance.
+	// Changed by the training thread and copied by the background thread only while holding the lock of this object.
+	protected WindowInstances window;
+	
+	// Set by the background thread when rebuildInBackgroundOption is set, hence volatile
+	protected volatile boolean isClassificationEnabled;
+
+	// WEKA dataset holding the sliding window after the instances that have already left it, whose number is numRemovedInstances.
+	// Removing the oldest instance only increases numRemovedInstances; compact drops the removed instances in one go, and must be
+	// called before the dataset is given to WEKA. Compacting once the removed instances are as many as the others keeps removals
+	// constant time on average and the dataset at most twice as large as the window.
+	protected static class WindowInstances extends weka.core.Instances {
+
+		private static final long serialVersionUID = 1L;
+
+		protected int numRemovedInstances;
+
+		public WindowInstances(weka.core.Instances header) {
+			super(header, 0);
+		}
+
+		public int numWindowInstances() {
+			return numInstances() - numRemovedInstances;
+		}
+
+		public void removeOldest() {
+			numRemovedInstances++;
+			if (numRemovedInstances >= numWindowInstances())
+				compact();
+		}
+
+		public void compact() {
+			if (numRemovedInstances == 0)
+				return;
+			m_Instances.subList(0, numRemovedInstances).clear();
+			numRemovedInstances = 0;
+		}
+	}
 
 	@Override
 	public String getPurposeString() {
@@ -55,49 +176,91 @@ implements Regressor {
 
 	@Override
 	public void resetLearningImpl() {
+		// A background rebuild must not replace the classifier after the reset, nor a postponed rebuild be carried out
+		synchronized (this) {
+			isRebuildPending = false;
+			isModelDirty = false;
+		}
+		waitForPendingRebuild();
+		hasScheduledRebuild = false;
+		
 		resetWekaClassifier();
 		this.instanceConverter = new SamoaToWekaInstanceConverter();
-		instancesBuffer = null;
+		window = null;
 		isClassificationEnabled = false;
+		numAdded = 0;
+		modelStart = 0;
+		modelEnd = 0;
+		numRebuilds = 0;
+		numIncrementalUpdates = 0;
+		numInstancesSinceRebuild = 0;
+		lastRebuildEndMillis = 0;
+		modelVersion++;
 	}
 
 	protected void resetWekaClassifier() {
 		try {
 			//System.out.println(baseLearnerOption.getValue());
-			String[] options = weka.core.Utils.splitOptions(baseLearnerOption.getValueAsCLIString());
-			createWekaClassifier(options);
+			this.classifier = copyPrototypeClassifier();
 			isClassificationEnabled = false;
 		} catch (Exception e) {
 			System.err.println("Creating a new classifier: " + e.getMessage());
 		}
 	}
+	
+	// New untrained classifier configured by baseLearnerOption, copied from the prototype, which is created first if needed.
+	// Called by the background thread too.
+	protected synchronized Classifier copyPrototypeClassifier() throws Exception {
+		String cliString = baseLearnerOption.getValueAsCLIString();
+		if (prototypeClassifier == null || !cliString.equals(prototypeCLIString)) {
+			// Created apart from this.classifier, which may be the live model while a background rebuild is scheduled
+			prototypeClassifier = newWekaClassifier(weka.core.Utils.splitOptions(cliString));
+			prototypeCLIString = cliString;
+		}
+		return weka.classifiers.AbstractClassifier.makeCopy(prototypeClassifier);
+	}
 
 
 	public void createWekaClassifier(String[] options) throws Exception {
+		this.classifier = newWekaClassifier(options);
+	}
+	
+	// New untrained WEKA classifier, whose name is the first of options and whose options are the others
+	protected static Classifier newWekaClassifier(String[] options) throws Exception {
 		String classifierName = options[0];
 		String[] newoptions = options.clone();
 		newoptions[0] = "";
-		this.classifier = weka.classifiers.AbstractClassifier.forName(classifierName, newoptions);
+		return weka.classifiers.AbstractClassifier.forName(classifierName, newoptions);
 	}
 
 	@Override
 	public void trainOnInstanceImpl(Instance samoaInstance) {
-		weka.core.Instance inst = this.instanceConverter.wekaInstance(samoaInstance);
 		try {
-			if (instancesBuffer == null) 
-				instancesBuffer = new weka.core.Instances(inst.dataset());
-
-			if (instancesBuffer.size() < this.widthOption.getValue()) {
-				instancesBuffer.add(inst);
-			} else {
-				instancesBuffer.remove(0);
-				instancesBuffer.add(inst);
+			weka.core.Instance inst = wekaInstance(samoaInstance);
+			synchronized (this) {
+				if (window == null)
+					window = new WindowInstances(inst.dataset());
+
+				if (window.numWindowInstances() == this.widthOption.getValue())
+					window.removeOldest();
+				window.add(inst);
+
+				numAdded++;
 			}
+			numInstancesSinceRebuild++;
 
-			if (instancesBuffer.size() >= this.minInstancesForTraining.getValue()) {
-				resetWekaClassifier();
-				classifier.buildClassifier(instancesBuffer);
-				this.isClassificationEnabled = true;
+			if (window.numWindowInstances() >= this.minInstancesForTraining.getValue()) {
+				
+				if (this.updateIncrementallyOption.isSet() && updateIncrementally(inst))
+					return;
+				
+				if (isRebuildDue()) {
+					if (this.lazyRebuildOption.isSet())
+						markModelDirty();
+					else if (this.rebuildInBackgroundOption.isSet())
+						scheduleRebuild();
+					else rebuild();
+				}
 			}
 
 		} catch (Exception e) {
@@ -106,9 +269,183 @@ implements Regressor {
 
 	}
 
+	// Rebuild the classifier on the whole window on this thread
+	protected void rebuild() throws Exception {
+		resetWekaClassifier();
+		window.compact();
+		classifier.buildClassifier(window);
+		this.isClassificationEnabled = true;
+		
+		modelStart = numAdded - window.numWindowInstances();
+		modelEnd = numAdded;
+		numRebuilds++;
+		modelVersion++;
+		numInstancesSinceRebuild = 0;
+		if (this.rebuildTimeBudgetOption.getValue() > 0)
+			lastRebuildEndMillis = System.currentTimeMillis();
+	}
+	
+	protected synchronized void markModelDirty() {
+		isModelDirty = true;
+	}
+	
+	// Carry out the rebuild postponed by lazyRebuildOption, if any. It is scheduled in the background if rebuildInBackgroundOption is set.
+	// Synchronized, so that the rebuild is carried out once even if several threads ask for predictions.
+	public synchronized void flush() {
+		if (!isModelDirty)
+			return;
+		isModelDirty = false;
+		try {
+			if (this.rebuildInBackgroundOption.isSet())
+				scheduleRebuild();
+			else rebuild();
+		} catch (Exception e) {
+			System.err.println("Training: " + e.getMessage());
+		}
+	}
+	
+	// Update the classifier with inst, the last instance of the window, if it is updateable and contains exactly the window before inst.
+	// Return whether it was updated. No background rebuild may be running, as it would replace the updated classifier.
+	protected synchronized boolean updateIncrementally(weka.core.Instance inst) throws Exception {
+		if (!(this.classifier instanceof UpdateableClassifier) || !this.isClassificationEnabled || isRebuildRunning || isRebuildPending
+				|| modelStart != numAdded - window.numWindowInstances() || modelEnd != numAdded - 1)
+			return false;
+		
+		((UpdateableClassifier) this.classifier).updateClassifier(inst);
+		modelEnd = numAdded;
+		numIncrementalUpdates++;
+		modelVersion++;
+		return true;
+	}
+	
+	// Schedule a background rebuild on the window. The background thread copies the window only when the rebuild starts,
+	// so rebuilds scheduled while another one runs are merged without copying the window for each of them.
+	protected void scheduleRebuild() {
+		hasScheduledRebuild = true;
+		numInstancesSinceRebuild = 0;
+		
+		synchronized (this) {
+			isRebuildPending = true;
+			if (isRebuildRunning)
+				return;
+			isRebuildRunning = true;
+		}
+		
+		if (rebuildPool == null)
+			rebuildPool = new ForkJoinPool(1);
+		rebuildPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				runPendingRebuilds();
+			}
+		});
+	}
+	
+	// Run on the background thread until there is no pending rebuild left
+	protected void runPendingRebuilds() {
+		try {
+			while (true) {
+				weka.core.Instances instances;
+				long start, end;
+				synchronized (this) {
+					if (!isRebuildPending)
+						return;
+					isRebuildPending = false;
+					instances = createWekaInstances();
+					start = numAdded - window.numWindowInstances();
+					end = numAdded;
+				}
+				
+				Classifier newClassifier;
+				try {
+					newClassifier = copyPrototypeClassifier();
+					newClassifier.buildClassifier(instances);
+				} catch (Exception e) {
+					System.err.println("Training: " + e.getMessage());
+					continue;
+				}
+				
+				synchronized (this) {
+					this.classifier = newClassifier;
+					this.isClassificationEnabled = true;
+					modelStart = start;
+					modelEnd = end;
+					numRebuilds++;
+					modelVersion++;
+					if (this.rebuildTimeBudgetOption.getValue() > 0)
+						lastRebuildEndMillis = System.currentTimeMillis();
+				}
+			}
+		} finally {
+			synchronized (this) {
+				isRebuildRunning = false;
+				notifyAll();
+			}
+		}
+	}
+	
+	// Wait until the background rebuilds scheduled so far have replaced the classifier, so that predictions do not depend on timing
+	public synchronized void waitForPendingRebuild() {
+		try {
+			while (isRebuildRunning)
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the classifier to be rebuilt.", e);
+		}
+	}
+
+	// Copy of the window for background rebuilds, which run while the window changes. The copied instances share their values
+	// with the instances of the window, which are never modified.
+	protected weka.core.Instances createWekaInstances() {
+		window.compact();
+		return new weka.core.Instances(window);
+	}
+
+	// Whether the classifier should be rebuilt on the whole window now
+	protected boolean isRebuildDue() {
+		if ((!this.isClassificationEnabled && !hasScheduledRebuild) || numInstancesSinceRebuild >= this.rebuildPeriodOption.getValue())
+			return true;
+		return this.rebuildTimeBudgetOption.getValue() > 0 
+				&& System.currentTimeMillis() - lastRebuildEndMillis >= this.rebuildTimeBudgetOption.getValue();
+	}
+	
+	// Whether the classifier may not be trained on exactly the current window, because of the rebuild and incremental update options
+	protected boolean isStalenessMeasured() {
+		return this.rebuildPeriodOption.getValue() != 1 || this.rebuildTimeBudgetOption.getValue() > 0 || this.updateIncrementallyOption.isSet()
+				|| this.rebuildInBackgroundOption.isSet() || this.lazyRebuildOption.isSet();
+	}
+	
+	// Number of instances in the window that the classifier was not trained on
+	public synchronized long getNumInstancesNotInModel() {
+		if (window == null)
+			return 0;
+		return numAdded - Math.max(modelEnd, numAdded - window.numWindowInstances());
+	}
+	
+	// Number of instances the classifier was trained on that have left the window since
+	public synchronized long getNumInstancesNoLongerInWindow() {
+		if (window == null)
+			return 0;
+		return Math.max(0, Math.min(numAdded - window.numWindowInstances(), modelEnd) - modelStart);
+	}
+
+	@Override
+	public long getModelVersion() {
+		return modelVersion;
+	}
+
+	// WEKA form of samoaInstance, from the shared cache if sharedConversionCacheOption is set
+	protected weka.core.Instance wekaInstance(Instance samoaInstance) {
+		if (this.sharedConversionCacheOption.isSet())
+			return WEKAInstanceCache.SHARED.wekaInstance(samoaInstance);
+		return this.instanceConverter.wekaInstance(samoaInstance);
+	}
+
 	@Override
 	public double[] getVotesForInstance(Instance samoaInstance) {
-		weka.core.Instance inst = this.instanceConverter.wekaInstance(samoaInstance);
+		flush();
+		weka.core.Instance inst = wekaInstance(samoaInstance);
         double[] votes = new double[inst.numClasses()];
         if (isClassificationEnabled == false) {
             for (int i = 0; i < inst.numClasses(); i++) {
@@ -125,9 +462,23 @@ implements Regressor {
 	}
 
 	@Override
-	protected Measurement[] getModelMeasurementsImpl() {
-		Measurement[] m = new Measurement[0];
-		return m;
+	protected synchronized Measurement[] getModelMeasurementsImpl() {
+		if (!isStalenessMeasured()) {
+			Measurement[] m = new Measurement[0];
+			return m;
+		}
+		
+		return new Measurement[] {
+				new Measurement("window instances not in model", getNumInstancesNotInModel()),
+				new Measurement("model instances no longer in window", getNumInstancesNoLongerInWindow()),
+				new Measurement("model rebuilds", numRebuilds),
+				new Measurement("model incremental updates", numIncrementalUpdates)};
+	}
+
+	// Copies (e.g., serialisation by OATES) include the rebuilds scheduled so far
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		waitForPendingRebuild();
+		out.defaultWriteObject();
 	}
 
 	@Override
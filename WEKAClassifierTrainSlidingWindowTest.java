@@ -4,6 +4,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 
 import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 
 import junit.framework.TestCase;
@@ -56,6 +57,17 @@ public class WEKAClassifierTrainSlidingWindowTest extends TestCase {
 		super.tearDown();
 	}
 	
+	// Instances {i+1, i+1, i+2} for i from 0 to num-1, whose class is the last attribute
+	private DenseInstance[] createInstances(int num) {
+		DenseInstance []insts = new DenseInstance[num];
+		for (int i=0; i<num; ++i) {
+			double [] attvals = {i+1,i+1,i+2};
+			insts[i] = new DenseInstance(1, attvals);
+			insts[i].setDataset(dataset);
+		}
+		return insts;
+	}
+	
 	public void testTrainOnInstance() throws Exception {
 		
 		double [] attvals = {1,1,2};
@@ -205,4 +217,253 @@ public class WEKAClassifierTrainSlidingWindowTest extends TestCase {
 		assertEquals(5.0, classifier10.getVotesForInstance(inst4)[0]);
 		assertEquals(6.0, classifier10.getVotesForInstance(inst5)[0]);
 	}
+
+	
+	public void testRebuildPeriodAndIncrementalUpdates() {
+		
+		DenseInstance []insts = createInstances(5);
+		
+		// rebuild only every 3 instances
+		classifier.rebuildPeriodOption.setValue(3);
+		classifier.resetLearning();
+		
+		classifier.trainOnInstance(insts[0]);
+		assertEquals(0, classifier.getNumInstancesNotInModel());
+		classifier.trainOnInstance(insts[1]);
+		assertEquals(1, classifier.getNumInstancesNotInModel());
+		classifier.trainOnInstance(insts[2]);
+		assertEquals(2, classifier.getNumInstancesNotInModel());
+		assertEquals(2.0, classifier.getVotesForInstance(insts[2])[0]);
+		classifier.trainOnInstance(insts[3]);
+		assertEquals(0, classifier.getNumInstancesNotInModel());
+		assertEquals(4.0, classifier.getVotesForInstance(insts[2])[0]);
+		assertEquals(4, classifier.getModelMeasurementsImpl().length);
+		
+		// IBk is updateable, so it is updated with each instance until the first instance leaves the window
+		classifier10.updateIncrementallyOption.setValue(true);
+		classifier10.resetLearning();
+		
+		for (int i=0; i<3; ++i)
+			classifier10.trainOnInstance(insts[i]);
+		assertEquals(1, classifier10.numRebuilds);
+		assertEquals(2, classifier10.numIncrementalUpdates);
+		assertEquals(4.0, classifier10.getVotesForInstance(insts[2])[0]);
+		
+		classifier10.trainOnInstance(insts[3]);
+		assertEquals(2, classifier10.numRebuilds);
+		assertEquals(0, classifier10.getNumInstancesNoLongerInWindow());
+		assertEquals(3.0, classifier10.getVotesForInstance(insts[0])[0]);
+	}
+
+	
+	public void testPrototypeClassifier() {
+		
+		double [] attvals = {1,1,2};
+		DenseInstance inst = new DenseInstance(1, attvals);
+		inst.setDataset(dataset);
+		
+		weka.classifiers.Classifier prototype = classifier.prototypeClassifier;
+		assertNotNull(prototype);
+		assertNotSame(prototype, classifier.classifier);
+		
+		// rebuilds copy the same prototype, which is never trained
+		classifier.trainOnInstance(inst);
+		classifier.trainOnInstance(inst);
+		assertSame(prototype, classifier.prototypeClassifier);
+		assertNotSame(prototype, classifier.classifier);
+		assertEquals(2.0, classifier.getVotesForInstance(inst)[0]);
+		
+		// changing the base learner creates a new prototype
+		classifier.baseLearnerOption.setValueViaCLIString("weka.classifiers.lazy.IBk -K 2");
+		classifier.resetLearning();
+		assertNotSame(prototype, classifier.prototypeClassifier);
+	}
+
+	
+	public void testRebuildInBackground() {
+		
+		DenseInstance []insts = createInstances(5);
+		
+		classifier10.rebuildInBackgroundOption.setValue(true);
+		classifier10.resetLearning();
+		
+		for (int i=0; i<insts.length; ++i) {
+			classifier10.trainOnInstance(insts[i]);
+			classifier10.waitForPendingRebuild();
+			assertEquals(0, classifier10.getNumInstancesNotInModel());
+		}
+		
+		// once the rebuilds have finished, predictions are the same as with rebuilds on the training thread
+		assertEquals(4.0, classifier10.getVotesForInstance(insts[0])[0]);
+		assertEquals(4.0, classifier10.getVotesForInstance(insts[2])[0]);
+		assertEquals(6.0, classifier10.getVotesForInstance(insts[4])[0]);
+		
+		// rebuilds scheduled without waiting are merged, and the last one covers the whole window
+		classifier10.resetLearning();
+		for (int i=0; i<insts.length; ++i)
+			classifier10.trainOnInstance(insts[i]);
+		classifier10.waitForPendingRebuild();
+		assertTrue(classifier10.numRebuilds <= insts.length);
+		assertEquals(0, classifier10.getNumInstancesNotInModel());
+		assertEquals(6.0, classifier10.getVotesForInstance(insts[4])[0]);
+		
+		// replacing the classifier in the background changes the model version seen through VersionedClassifier, e.g., by OATES
+		VersionedClassifier versioned = new VersionedClassifier(classifier10);
+		long version = versioned.getModelVersion();
+		classifier10.trainOnInstance(insts[0]);
+		classifier10.waitForPendingRebuild();
+		assertTrue(versioned.getModelVersion() > version);
+	}
+
+	
+	public void testWindow() {
+		
+		DenseInstance []insts = createInstances(5);
+		for (int i=0; i<insts.length; ++i)
+			classifier10.trainOnInstance(insts[i]);
+		
+		// the window keeps the last 3 instances, oldest first
+		assertEquals(3, classifier10.window.numWindowInstances());
+		weka.core.Instances wekaInstances = classifier10.createWekaInstances();
+		assertEquals(3, wekaInstances.numInstances());
+		for (int i=0; i<3; ++i) {
+			assertEquals(i+3.0, wekaInstances.instance(i).value(0));
+			assertEquals(i+4.0, wekaInstances.instance(i).value(2));
+		}
+	}
+
+	
+	public void testWindowRemovesInstancesInOneGo() {
+		
+		// without rebuilds at every instance, instances that left the window are kept until they are as many as the others
+		classifier10.rebuildPeriodOption.setValue(100);
+		classifier10.resetLearning();
+		DenseInstance []insts = createInstances(20);
+		for (int i=0; i<insts.length; ++i) {
+			classifier10.trainOnInstance(insts[i]);
+			assertEquals(Math.min(i+1, 3), classifier10.window.numWindowInstances());
+			assertTrue(classifier10.window.numInstances() <= 6);
+		}
+		
+		// the copy given to WEKA holds only the window
+		weka.core.Instances wekaInstances = classifier10.createWekaInstances();
+		assertEquals(3, classifier10.window.numInstances());
+		assertEquals(3, wekaInstances.numInstances());
+		for (int i=0; i<3; ++i)
+			assertEquals(i+18.0, wekaInstances.instance(i).value(0));
+	}
+
+	
+	public void testSharedConversionCache() {
+		
+		double [] attvals = {1,1,2};
+		DenseInstance inst = new DenseInstance(1, attvals);
+		inst.setDataset(dataset);
+		
+		double [] attvals2 = {2,2,3};
+		DenseInstance inst2 = new DenseInstance(1, attvals2);
+		inst2.setDataset(dataset);
+		
+		// an instance is converted once, and instances of the same dataset share their WEKA header
+		weka.core.Instance winst = WEKAInstanceCache.SHARED.wekaInstance(inst);
+		assertSame(winst, WEKAInstanceCache.SHARED.wekaInstance(inst));
+		assertSame(winst.dataset(), WEKAInstanceCache.SHARED.wekaInstance(inst2).dataset());
+		assertEquals(2.0, winst.value(2));
+		
+		classifier.sharedConversionCacheOption.setValue(true);
+		classifier.resetLearning();
+		classifier10.sharedConversionCacheOption.setValue(true);
+		classifier10.resetLearning();
+		
+		classifier.trainOnInstance(inst);
+		classifier.trainOnInstance(inst2);
+		classifier10.trainOnInstance(inst);
+		classifier10.trainOnInstance(inst2);
+		
+		assertSame(winst, classifier.wekaInstance(inst));
+		assertSame(winst, classifier10.wekaInstance(inst));
+		assertEquals(2.0, classifier.getVotesForInstance(inst)[0]);
+		assertEquals(3.0, classifier10.getVotesForInstance(inst2)[0]);
+	}
+
+	
+	public void testSharedConversionCacheForQueuedInstances() {
+		
+		// more queued instances than slots for other instances in the shared cache
+		InstanceRingBuffer queue = new InstanceRingBuffer();
+		DenseInstance []insts = createInstances(5000);
+		for (int i=0; i<insts.length; ++i)
+			queue.add(insts[i]);
+		
+		weka.core.Instance []converted = new weka.core.Instance[queue.size()];
+		Instance []logInsts = new Instance[queue.size()];
+		for (int j=0; j<queue.size(); ++j) {
+			converted[j] = WEKAInstanceCache.SHARED.wekaInstance(queue.get(j));
+			logInsts[j] = WEKAInstanceCache.SHARED.logInstance(queue.get(j));
+		}
+		
+		// every queued instance is still converted only once on the next pass, whichever Instance object the queue gives for it
+		for (int j=0; j<queue.size(); ++j) {
+			Instance inst = queue.get(j);
+			assertSame(converted[j], WEKAInstanceCache.SHARED.wekaInstance(inst));
+			assertSame(logInsts[j], WEKAInstanceCache.SHARED.logInstance(inst));
+			assertSame(WEKAInstanceCache.SHARED.wekaInstance(logInsts[j]), WEKAInstanceCache.SHARED.wekaInstance(logInsts[j]));
+			assertEquals(j+1.0, converted[j].value(0));
+		}
+		
+		// the forms of an instance are dropped when it leaves the queue
+		Instance first = queue.get(0);
+		queue.removeFirst();
+		assertNull(InstanceRingBuffer.getCachedForm(first));
+		assertNotSame(converted[0], WEKAInstanceCache.SHARED.wekaInstance(first));
+	}
+
+	
+	public void testSharedLogInstanceCache() {
+		
+		double [] attvals = {1,1,2};
+		DenseInstance inst = new DenseInstance(1, attvals);
+		inst.setDataset(dataset);
+		
+		// the log form of an instance is computed once, so its WEKA form is cached too
+		Instance logInst = WEKAInstanceCache.SHARED.logInstance(inst);
+		assertSame(logInst, WEKAInstanceCache.SHARED.logInstance(inst));
+		assertEquals(Math.log(3), logInst.value(2), 1E-12);
+		assertEquals(2.0, inst.value(2));
+		
+		WEKALogClassifierTrainSlidingWindow logClassifier = new WEKALogClassifierTrainSlidingWindow();
+		logClassifier.baseLearnerOption.setValueViaCLIString("weka.classifiers.lazy.IBk -K 1");
+		logClassifier.sharedConversionCacheOption.setValue(true);
+		logClassifier.resetLearning();
+		
+		logClassifier.trainOnInstance(inst);
+		assertSame(logInst, logClassifier.logInstance(inst));
+		assertSame(WEKAInstanceCache.SHARED.wekaInstance(logInst), logClassifier.wekaInstance(logInst));
+		assertEquals(2.0, logClassifier.getVotesForInstance(inst)[0], 1E-12);
+	}
+
+	
+	public void testLazyRebuild() {
+		
+		DenseInstance []insts = createInstances(5);
+		
+		classifier10.lazyRebuildOption.setValue(true);
+		classifier10.resetLearning();
+		
+		// training only marks the classifier as needing a rebuild
+		for (int i=0; i<insts.length; ++i)
+			classifier10.trainOnInstance(insts[i]);
+		assertEquals(0, classifier10.numRebuilds);
+		
+		// the next prediction rebuilds it once, on the latest window
+		assertEquals(4.0, classifier10.getVotesForInstance(insts[0])[0]);
+		assertEquals(6.0, classifier10.getVotesForInstance(insts[4])[0]);
+		assertEquals(1, classifier10.numRebuilds);
+		
+		classifier10.trainOnInstance(insts[0]);
+		classifier10.flush();
+		assertEquals(2, classifier10.numRebuilds);
+		assertEquals(0, classifier10.getNumInstancesNotInModel());
+		assertEquals(2.0, classifier10.getVotesForInstance(insts[0])[0]);
+	}
 }
@@ -0,0 +1,189 @@
+/**
+ * Cache of the WEKA form of SAMOA instances, shared by WEKA-based learners such as the WEKA learners of an OATES ensemble,
+ * so that an instance given to several of them, or to the same one several times, is converted only once.
+ * It also caches the log form of instances used by WEKALogClassifierTrainSlidingWindow, created by WEKALogClassifier.createLogInstance,
+ * so that it keeps the same identity and its WEKA form is cached too.
+ *
+ * The forms of instances returned by InstanceRingBuffer.get (e.g., the WC instances queued by OATES) are kept by the queue with the
+ * instance, through InstanceRingBuffer.setCachedForm, so they are found on every pass over the queue even though each pass gets new
+ * Instance objects, and the cache grows and shrinks with the queue. The log form of such an instance keeps its own WEKA form.
+ *
+ * Other instances are looked up by the identity of the SAMOA instance, in a fixed number of slots chosen by its identity hash code.
+ * A slot keeps the last instance converted into it, so the cache holds a bounded number of instances and never needs to be cleared.
+ *
+ * All converted instances with the same attributes and class index share one WEKA header, created when the first of them is converted.
+ *
+ * The cached WEKA and log instances are given to every caller, so callers must not modify them. SAMOA instances must not be modified after
+ * being converted, as their cached forms would not change with them.
+ *
+ * The cache can be used by several threads at the same time.
+ *
+ */
+
+package moa.classifiers.meta;
+
+import java.util.HashMap;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
+
+public class WEKAInstanceCache {
+
+	// Cache shared by all WEKA-based learners
+	public static final WEKAInstanceCache SHARED = new WEKAInstanceCache(4096, 64);
+
+	// Slots of converted instances, log instances and converters, replaced as a whole so that a slot is never seen half written
+	protected final InstanceEntry[] instanceSlots;
+	protected final InstanceEntry[] logInstanceSlots;
+	protected final ConverterEntry[] converterSlots;
+
+	// Converter of each schema, whose WEKA header is shared by all instances with that schema
+	protected final HashMap<String, SamoaToWekaInstanceConverter> convertersBySchema;
+
+	// Forms of an instance kept by its queue. Created by one thread and filled in by any thread, hence volatile.
+	protected static class QueuedForms {
+
+		protected volatile weka.core.Instance wekaForm;
+		protected volatile QueuedLogInstance logForm;
+	}
+
+	// Log form of a queued instance, which keeps its own WEKA form, as it is not looked up by identity
+	protected static class QueuedLogInstance extends DenseInstance {
+
+		private static final long serialVersionUID = 1L;
+
+		protected transient volatile weka.core.Instance wekaForm;
+
+		public QueuedLogInstance(Instance logInst) {
+			super(logInst);
+		}
+	}
+
+	// Instance and one of its cached forms
+	protected static class InstanceEntry {
+
+		protected final Instance instance;
+		protected final Object form;
+
+		protected InstanceEntry(Instance instance, Object form) {
+			this.instance = instance;
+			this.form = form;
+		}
+	}
+
+	protected static class ConverterEntry {
+
+		protected final Instances dataset;
+		protected final SamoaToWekaInstanceConverter converter;
+
+		protected ConverterEntry(Instances dataset, SamoaToWekaInstanceConverter converter) {
+			this.dataset = dataset;
+			this.converter = converter;
+		}
+	}
+
+	// The numbers of slots must be powers of 2
+	public WEKAInstanceCache(int numInstanceSlots, int numConverterSlots) {
+		this.instanceSlots = new InstanceEntry[numInstanceSlots];
+		this.logInstanceSlots = new InstanceEntry[numInstanceSlots];
+		this.converterSlots = new ConverterEntry[numConverterSlots];
+		this.convertersBySchema = new HashMap<String, SamoaToWekaInstanceConverter>();
+	}
+
+	// WEKA form of inst, converted the first time it is asked for
+	public weka.core.Instance wekaInstance(Instance inst) {
+		if (inst instanceof QueuedLogInstance) {
+			QueuedLogInstance logInst = (QueuedLogInstance) inst;
+			if (logInst.wekaForm == null)
+				logInst.wekaForm = getConverter(inst).wekaInstance(inst);
+			return logInst.wekaForm;
+		}
+
+		QueuedForms forms = getQueuedForms(inst);
+		if (forms != null) {
+			if (forms.wekaForm == null)
+				forms.wekaForm = getConverter(inst).wekaInstance(inst);
+			return forms.wekaForm;
+		}
+
+		int slot = System.identityHashCode(inst) & (instanceSlots.length-1);
+		InstanceEntry entry = instanceSlots[slot];
+		if (entry != null && entry.instance == inst)
+			return (weka.core.Instance) entry.form;
+
+		weka.core.Instance wekaInst = getConverter(inst).wekaInstance(inst);
+		instanceSlots[slot] = new InstanceEntry(inst, wekaInst);
+		return wekaInst;
+	}
+
+	// Log form of inst, as created by WEKALogClassifier.createLogInstance the first time it is asked for
+	public Instance logInstance(Instance inst) {
+		QueuedForms forms = getQueuedForms(inst);
+		if (forms != null) {
+			if (forms.logForm == null)
+				forms.logForm = new QueuedLogInstance(WEKALogClassifier.createLogInstance(inst));
+			return forms.logForm;
+		}
+
+		int slot = System.identityHashCode(inst) & (logInstanceSlots.length-1);
+		InstanceEntry entry = logInstanceSlots[slot];
+		if (entry != null && entry.instance == inst)
+			return (Instance) entry.form;
+
+		Instance logInst = WEKALogClassifier.createLogInstance(inst);
+		logInstanceSlots[slot] = new InstanceEntry(inst, logInst);
+		return logInst;
+	}
+
+	// Forms kept by the queue of inst, created if needed, or null if inst was not returned by InstanceRingBuffer.get for a queued instance
+	protected static QueuedForms getQueuedForms(Instance inst) {
+		QueuedForms forms = (QueuedForms) InstanceRingBuffer.getCachedForm(inst);
+		if (forms == null) {
+			forms = new QueuedForms();
+			if (!InstanceRingBuffer.setCachedForm(inst, forms))
+				return null;
+		}
+		return forms;
+	}
+
+	// Converter shared by the instances with the same schema as inst
+	protected SamoaToWekaInstanceConverter getConverter(Instance inst) {
+		Instances dataset = inst.dataset();
+		int slot = System.identityHashCode(dataset) & (converterSlots.length-1);
+		ConverterEntry entry = converterSlots[slot];
+		if (entry != null && entry.dataset == dataset)
+			return entry.converter;
+
+		String schema = getSchema(dataset);
+		SamoaToWekaInstanceConverter converter;
+		synchronized (convertersBySchema) {
+			converter = convertersBySchema.get(schema);
+			if (converter == null) {
+				converter = new SamoaToWekaInstanceConverter();
+				// Creates the WEKA header of the converter, which is not modified afterwards
+				converter.wekaInstance(inst);
+				convertersBySchema.put(schema, converter);
+			}
+		}
+		converterSlots[slot] = new ConverterEntry(dataset, converter);
+		return converter;
+	}
+
+	// Description of the attributes and class index of dataset, equal for datasets whose instances can share a WEKA header
+	protected static String getSchema(Instances dataset) {
+		StringBuilder schema = new StringBuilder();
+		schema.append(dataset.classIndex());
+		for (int a=0; a<dataset.numAttributes(); ++a) {
+			Attribute att = dataset.attribute(a);
+			schema.append('\n').append(att.name());
+			if (att.isNominal())
+				schema.append('\t').append(att.getAttributeValues());
+			else schema.append(att.isNumeric() ? "\tnumeric" : "\tother");
+		}
+		return schema.toString();
+	}
+
+}
@@ -10,6 +10,9 @@
  * Predictions that, when converted to non-logarithmic scale, are infinite or NaN, are replaced by 1000000.
  * This was for using with software effort estimation. A more appropriate choice could be to use Double.MAX_VALUE
  * 
+ * With sharedConversionCache, the log form of each instance is also taken from WEKAInstanceCache.SHARED, so that it is computed
+ * only once for all log learners given the instance, and its WEKA form is then cached as well.
+ * 
  */
 
 package moa.classifiers.meta;
@@ -32,14 +35,14 @@ public class WEKALogClassifierTrainSlidingWindow extends WEKAClassifierTrainSlid
 	@Override
     public void trainOnInstanceImpl(Instance samoaInstance) {
 		
-		Instance logInstance = WEKALogClassifier.createLogInstance(samoaInstance);
+		Instance logInstance = logInstance(samoaInstance);
 		super.trainOnInstanceImpl(logInstance);
 	}
 	
 	@Override
     public double[] getVotesForInstance(Instance samoaInstance) {
 		
-		Instance logInstance = WEKALogClassifier.createLogInstance(samoaInstance);
+		Instance logInstance = logInstance(samoaInstance);
 		double[] prediction = super.getVotesForInstance(logInstance);
 		
 		// de-log the predictions of numerical variables
@@ -51,5 +54,12 @@ public class WEKALogClassifierTrainSlidingWindow extends WEKAClassifierTrainSlid
 
 		return prediction;		
 	}
+	
+	// Log form of samoaInstance, from the shared cache if sharedConversionCacheOption is set
+	protected Instance logInstance(Instance samoaInstance) {
+		if (this.sharedConversionCacheOption.isSet())
+			return WEKAInstanceCache.SHARED.logInstance(samoaInstance);
+		return WEKALogClassifier.createLogInstance(samoaInstance);
+	}
 
 }